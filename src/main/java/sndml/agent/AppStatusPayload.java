@@ -1,6 +1,6 @@
 package sndml.agent;
 
-import sndml.util.DatePartition;
+import sndml.util.Partition;
 import sndml.util.Metrics;
 
 public class AppStatusPayload {
@@ -14,20 +14,20 @@ public class AppStatusPayload {
 	final Type type;
 	final AppJobRunner runner;
 	final AppJobStatus status;	
-	final DatePartition datePart;
+	final Partition part;
 	final Metrics metrics;
 	
 	public AppStatusPayload(
 			Type type,
 			AppJobRunner runner,
 			AppJobStatus status,			
-			DatePartition datePart,
+			Partition part,
 			Metrics metrics) 
 	{
 		this.type = type;
 		this.runner = runner;
 		this.status = status;
-		this.datePart = datePart;
+		this.part = part;
 		this.metrics = metrics;
 	}
 	
@@ -53,9 +53,9 @@ public class AppStatusPayload {
 	public AppStatusPayload newPartitionProgressPayload(
 			AppJobRunner runner,
 			AppJobStatus status,
-			DatePartition datePart,
+			Partition part,
 			Metrics metrics) {
-		return new AppStatusPayload(Type.PROGRESS, runner, status, datePart, metrics);
+		return new AppStatusPayload(Type.PROGRESS, runner, status, part, metrics);
 	}
 		
 	public void process() {
@@ -46,6 +46,11 @@ public enum Action {
 	 */
 	DROPTABLE,
 	
+	/**
+	 * Summarize a table using the Stats API and upsert the results.
+	 */
+	AGGREGATE,
+	
 	/**
 	 * Alias for INSERT.
 	 */
@@ -62,11 +67,14 @@ public enum Action {
 	public static EnumSet<Action> INSERT_UPDATE_SYNC =
 			EnumSet.of(INSERT, UPDATE, SYNC, LOAD, REFRESH);
 
+	public static EnumSet<Action> INSERT_UPDATE_SYNC_AGGREGATE =
+			EnumSet.of(INSERT, UPDATE, SYNC, AGGREGATE, LOAD, REFRESH);
+
 	public static EnumSet<Action> INSERT_UPDATE_PRUNE =
 			EnumSet.of(INSERT, UPDATE, PRUNE, LOAD, REFRESH);
 
 	public static EnumSet<Action> ANY_TABLE_ACTION =
-			EnumSet.of(INSERT, UPDATE, SYNC, PRUNE, CREATE, DROPTABLE, LOAD, REFRESH, ROWSYNC);
+			EnumSet.of(INSERT, UPDATE, SYNC, PRUNE, CREATE, DROPTABLE, LOAD, REFRESH, ROWSYNC, AGGREGATE);
 
 	public static EnumSet<Action> EXECUTE_ONLY =
 			EnumSet.of(EXECUTE);
@@ -74,4 +82,7 @@ public enum Action {
 	public static EnumSet<Action> ROWSYNC_ONLY =
 			EnumSet.of(ROWSYNC);
 	
+	public static EnumSet<Action> AGGREGATE_ONLY =
+			EnumSet.of(AGGREGATE);
+	
 }
\ No newline at end of file
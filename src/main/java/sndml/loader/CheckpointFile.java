@@ -0,0 +1,169 @@
+package sndml.loader;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import sndml.servicenow.Checkpoint;
+import sndml.servicenow.RecordKey;
+import sndml.servicenow.RestTableReader;
+import sndml.servicenow.TableReader;
+import sndml.util.Log;
+import sndml.util.Metrics;
+
+/**
+ * <p>A {@link Checkpoint} which is saved as a properties file.
+ * For each reader (<i>i.e.</i> each job or partition) the file contains
+ * the last key which was committed and the number of rows processed.</p>
+ *
+ * <p>If a load is restarted with the same checkpoint file, then partitions
+ * which were completed are skipped, and partitions which were not completed
+ * are resumed after the last committed key.
+ * The file is deleted when the job completes successfully.</p>
+ *
+ * <p>The file also contains a signature of the job configuration.
+ * If the configuration has changed then the file is ignored.</p>
+ */
+public class CheckpointFile implements Checkpoint {
+
+	final File file;
+	final String signature;
+	private final Properties values = new Properties();
+	// rows processed in previous runs; not updated by this run
+	private final Properties previous = new Properties();
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	public CheckpointFile(File file, String signature) throws IOException {
+		this.file = file;
+		this.signature = signature;
+		if (file.exists()) {
+			try (InputStream input = new FileInputStream(file)) {
+				values.load(input);
+			}
+			if (signature.equals(values.getProperty("signature"))) {
+				logger.info(Log.INIT, "resuming from checkpoint " + file.getPath());
+				previous.putAll(values);
+			}
+			else {
+				logger.warn(Log.INIT, "job configuration has changed; ignoring checkpoint " + file.getPath());
+				values.clear();
+			}
+		}
+		values.setProperty("signature", signature);
+	}
+
+	public File getFile() {
+		return this.file;
+	}
+
+	/**
+	 * Return true if any rows were committed in a previous run.
+	 * If so then the target table must not be truncated.
+	 */
+	public synchronized boolean isResuming() {
+		for (String name : previous.stringPropertyNames())
+			if (!"signature".equals(name)) return true;
+		return false;
+	}
+
+	/**
+	 * Return true if the reader completed in a previous run.
+	 */
+	public synchronized boolean isComplete(String readerName) {
+		return "true".equals(previous.getProperty(readerName + ".complete"));
+	}
+
+	/**
+	 * Return the last key committed in a previous run, or null.
+	 */
+	public synchronized RecordKey getKey(String readerName) {
+		String value = previous.getProperty(readerName + ".key");
+		return value == null ? null : new RecordKey(value);
+	}
+
+	/**
+	 * Return the number of rows processed in previous runs.
+	 */
+	public synchronized int getRows(String readerName) {
+		String value = previous.getProperty(readerName + ".rows");
+		return value == null ? 0 : Integer.parseInt(value);
+	}
+
+	/**
+	 * Connect the reader to this checkpoint.
+	 * If the reader was partially completed in a previous run then it will resume
+	 * after the last committed key.
+	 * Rows processed in previous runs are added to the metrics as skipped.
+	 * Only {@link RestTableReader} is supported; other readers are unchanged.
+	 *
+	 * @return false if the reader completed in a previous run and should not be called
+	 */
+	public boolean attach(TableReader reader, Metrics metrics) {
+		if (!(reader instanceof RestTableReader)) return true;
+		String name = reader.getReaderName();
+		int rows = getRows(name);
+		if (metrics != null && rows > 0) metrics.addSkipped(rows);
+		if (isComplete(name)) {
+			logger.info(Log.INIT, String.format("%s completed previously (%d rows)", name, rows));
+			return false;
+		}
+		RecordKey startKey = getKey(name);
+		((RestTableReader) reader).setCheckpoint(this, startKey);
+		return true;
+	}
+
+	@Override
+	public synchronized void pageComplete(TableReader reader, RecordKey lastKey, int rowCount)
+			throws IOException {
+		String name = reader.getReaderName();
+		values.setProperty(name + ".key", lastKey.toString());
+		values.setProperty(name + ".rows", Integer.toString(getRows(name) + rowCount));
+		Metrics metrics = reader.getMetrics();
+		if (metrics != null) {
+			values.setProperty(name + ".inserted", Integer.toString(metrics.getInserted()));
+			values.setProperty(name + ".updated", Integer.toString(metrics.getUpdated()));
+		}
+		save();
+	}
+
+	@Override
+	public synchronized void readerComplete(TableReader reader, int rowCount) throws IOException {
+		String name = reader.getReaderName();
+		values.setProperty(name + ".rows", Integer.toString(getRows(name) + rowCount));
+		values.setProperty(name + ".complete", "true");
+		save();
+	}
+
+	/**
+	 * Write the file. A temporary file is written and then renamed
+	 * so that the checkpoint is never partially written.
+	 */
+	private void save() throws IOException {
+		File parent = file.getAbsoluteFile().getParentFile();
+		File temp = new File(parent, file.getName() + ".tmp");
+		try (OutputStream output = new FileOutputStream(temp)) {
+			values.store(output, null);
+		}
+		Files.move(temp.toPath(), file.toPath(),
+			StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Remove the file after the job has completed successfully.
+	 */
+	public synchronized void delete() {
+		if (file.exists() && !file.delete())
+			logger.warn(Log.FINISH, "unable to delete " + file.getPath());
+	}
+
+}
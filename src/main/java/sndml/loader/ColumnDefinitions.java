@@ -5,10 +5,12 @@ import java.sql.DatabaseMetaData;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.function.Predicate;
 
 import org.slf4j.Logger;
 
 import sndml.servicenow.*;
+import sndml.util.FieldNames;
 import sndml.util.Log;
 
 /**
@@ -18,6 +20,8 @@ import sndml.util.Log;
 public class ColumnDefinitions extends ArrayList<DatabaseFieldDefinition> {
 
 	private static final long serialVersionUID = 1L;
+	
+	private final boolean displayValues;
 
 	final private Logger logger = Log.getLogger(this.getClass());
 
@@ -33,23 +37,57 @@ public class ColumnDefinitions extends ArrayList<DatabaseFieldDefinition> {
 	 */
 	public ColumnDefinitions(DatabaseWrapper db, Table table, String sqlTableName) 
 			throws SQLException, IOException {
+		this(db, table, sqlTableName, false);
+	}
+	
+	/**
+	 * Generate SQL data type information for all columns in the table
+	 * which are readable per the WSDL.
+	 * If displayValues is true, then a column named <code>dv_</code> followed by 
+	 * the name of a readable field is also included. The value for these columns 
+	 * must be supplied by a {@link ReferenceResolver}.
+	 */
+	public ColumnDefinitions(DatabaseWrapper db, Table table, String sqlTableName, boolean displayValues) 
+			throws SQLException, IOException {
 		super();
+		this.displayValues = displayValues;
 		assert db != null;
 		assert table != null;
 		assert sqlTableName != null;
+		TableWSDL wsdl = table.getWSDL();
+		load(db, sqlTableName, glidename -> wsdl.canReadField(glidename) || 
+				(isDisplayName(glidename) && wsdl.canReadField(glidename.substring(3))));
+	}
+	
+	/**
+	 * Generate SQL data type information for the columns in the table
+	 * whose names are in a list, rather than the readable fields of a ServiceNow table.
+	 * Used for records which are computed, such as the results of {@link TableAggregator}.
+	 */
+	public ColumnDefinitions(DatabaseWrapper db, FieldNames fieldNames, String sqlTableName) 
+			throws SQLException {
+		super();
+		this.displayValues = false;
+		assert db != null;
+		assert fieldNames != null;
+		assert sqlTableName != null;
+		load(db, sqlTableName, glidename -> fieldNames.contains(glidename));
+	}
+	
+	private void load(DatabaseWrapper db, String sqlTableName, Predicate<String> mapped) 
+			throws SQLException {
 		String dbschema = db.getSchema();
 		String saveJob = Log.getJobContext();
 		Log.setJobContext(sqlTableName + ".schema");
 		logger.debug(Log.SCHEMA, String.format("schema=%s table=%s", dbschema, sqlTableName));
 		Generator generator = db.getGenerator();
-		TableWSDL wsdl = table.getWSDL();
 		ResultSet rsColumns = getColumnDefinitions(db, sqlTableName);
 		while (rsColumns.next()) {
 			String name = rsColumns.getString(4);
 			int type = rsColumns.getInt(5);
 			int size = rsColumns.getInt(7);
 			String glidename = generator.glideName(name);
-			if (wsdl.canReadField(glidename)) {
+			if (mapped.test(glidename)) {
 				DatabaseFieldDefinition defn =
 					new DatabaseFieldDefinition(name, type, size, glidename);
 				this.add(defn);
@@ -73,6 +111,38 @@ public class ColumnDefinitions extends ArrayList<DatabaseFieldDefinition> {
 		Log.setJobContext(saveJob);	
 	}
 	
+	/**
+	 * Return the ServiceNow names of the columns, 
+	 * which can be used as <code>sysparm_fields</code> so that only 
+	 * the fields which are stored in the SQL table are read.
+	 */
+	public FieldNames getFieldNames() {
+		FieldNames result = new FieldNames(this.size());
+		for (DatabaseFieldDefinition defn : this) {
+			String glidename = defn.getGlideName();
+			if (isDisplayName(glidename)) glidename = glidename.substring(3);
+			if (!result.contains(glidename)) result.add(glidename);
+		}
+		return result;
+	}
+	
+	/**
+	 * Return the ServiceNow names of the fields which have a <code>dv_</code> column.
+	 */
+	public FieldNames getDisplayFieldNames() {
+		FieldNames result = new FieldNames();
+		for (DatabaseFieldDefinition defn : this) {
+			String glidename = defn.getGlideName();
+			if (isDisplayName(glidename) && !result.contains(glidename.substring(3))) 
+				result.add(glidename.substring(3));
+		}
+		return result;
+	}
+	
+	private boolean isDisplayName(String glidename) {
+		return displayValues && glidename.startsWith("dv_") && glidename.length() > 3;
+	}
+	
 	private ResultSet getColumnDefinitions(DatabaseWrapper database, String tablename) 
 			throws SQLException {
 		assert tablename != null;
@@ -11,6 +11,7 @@ import sndml.util.ProgressLogger;
 import sndml.agent.JobCancelledException;
 import sndml.servicenow.RecordKey;
 import sndml.servicenow.RecordList;
+import sndml.servicenow.RecordStream;
 import sndml.servicenow.Table;
 
 public class DatabaseRecordSyncWriter extends DatabaseTableWriter {
@@ -71,6 +72,13 @@ public class DatabaseRecordSyncWriter extends DatabaseTableWriter {
 		progressLogger.logProgress();
 	}
 	
+	@Override
+	public void processRecords(
+			RecordStream stream, Metrics metrics, ProgressLogger progressLogger) 
+			throws JobCancelledException, IOException, SQLException  {
+		processRecords(stream.readAll(), metrics, progressLogger);
+	}
+	
 	@Override
 	void writeRecord(TableRecord rec, Metrics metrics) throws SQLException {		
 		throw new UnsupportedOperationException();
@@ -1,17 +1,20 @@
 package sndml.loader;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.sql.SQLException;
 
 import org.slf4j.Logger;
 
 import sndml.agent.JobCancelledException;
 import sndml.servicenow.TableRecord;
+import sndml.util.FieldNames;
 import sndml.util.Log;
 import sndml.util.Metrics;
 import sndml.util.ProgressLogger;
 import sndml.util.ResourceException;
 import sndml.servicenow.RecordList;
+import sndml.servicenow.RecordStream;
 import sndml.servicenow.RecordWriter;
 import sndml.servicenow.Table;
 
@@ -32,6 +35,8 @@ public abstract class DatabaseTableWriter extends RecordWriter {
 	final protected String sqlTableName;
 	
 	protected ColumnDefinitions columns;
+	protected boolean displayValues = false;
+	protected FieldNames fieldNames = null;
 	
 	final Logger logger = Log.getLogger(this.getClass());
 	/**
@@ -56,15 +61,57 @@ public abstract class DatabaseTableWriter extends RecordWriter {
 		Log.setTableContext(this.table);
 	}
 		
+	/**
+	 * If true then <code>dv_</code> columns in the target table will be written.
+	 * The display values must be supplied by a {@link sndml.servicenow.DisplayValueWriter}.
+	 * Must be called before the writer is opened.
+	 */
+	public void setDisplayValues(boolean value) {
+		assert columns == null : "writer already open";
+		this.displayValues = value;
+	}
+	
+	/**
+	 * If not null then the columns of the target table are mapped to these 
+	 * field names, instead of the fields of the ServiceNow table which are readable per the WSDL.
+	 * Used for records which are computed, such as the results of {@link TableAggregator}.
+	 * Must be called before the writer is opened.
+	 */
+	public void setFieldNames(FieldNames value) {
+		assert columns == null : "writer already open";
+		this.fieldNames = value;
+	}
+	
 	@Override
 	public DatabaseTableWriter open(Metrics metrics) throws SQLException, IOException {
 		assert metrics != null;
 		super.open(metrics);
-		columns = new ColumnDefinitions(this.db, this.table, this.sqlTableName);
+		if (fieldNames != null)
+			columns = new ColumnDefinitions(this.db, this.fieldNames, this.sqlTableName);
+		else
+			columns = new ColumnDefinitions(this.db, this.table, this.sqlTableName, this.displayValues);
 		metrics.start();
 		return this;
 	}
 	
+	/**
+	 * Return the ServiceNow names of the columns in the target table.
+	 * The writer must be open.
+	 */
+	public FieldNames getFieldNames() {
+		assert columns != null : "writer not open";
+		return columns.getFieldNames();
+	}
+	
+	/**
+	 * Return the ServiceNow names of the fields which have a <code>dv_</code> column 
+	 * in the target table. The writer must be open.
+	 */
+	public FieldNames getDisplayFieldNames() {
+		assert columns != null : "writer not open";
+		return columns.getDisplayFieldNames();
+	}
+	
 	@Override
 	public void close(Metrics metrics) {
 		try {
@@ -91,6 +138,38 @@ public abstract class DatabaseTableWriter extends RecordWriter {
 		progressLogger.logProgress();
 	}
 	
+	/**
+	 * Write records one at a time as they are decoded from the stream,
+	 * and commit when the stream is exhausted.
+	 * The records are decoded (and the HTTP response is read) outside the lock,
+	 * so that a writer which is shared by several partitions is only held
+	 * while each record is written.
+	 */
+	@Override
+	public void processRecords(
+			RecordStream stream, Metrics metrics, ProgressLogger progressLogger) 
+			throws JobCancelledException, IOException, SQLException  {
+		assert metrics != null;
+		assert progressLogger != null;
+		try {
+			while (stream.hasNext()) {
+				TableRecord rec = stream.next();
+				logger.trace(Log.PROCESS, String.format(
+					"processing %s %s",  rec.getKey(), rec.getCreatedTimestamp()));
+				synchronized (this) {
+					writeRecord(rec, metrics);
+				}
+			}
+		}
+		catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		synchronized (this) {
+			db.commit();
+		}
+		progressLogger.logProgress();
+	}
+	
 	abstract void writeRecord(TableRecord rec, Metrics writerMetrics) throws SQLException;
 	
 }
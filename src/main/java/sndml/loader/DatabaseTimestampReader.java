@@ -123,4 +123,34 @@ public class DatabaseTimestampReader {
 		rs.close();
 		return result;	
 	}
+
+	/**
+	 * Returns the sys_id values in an SQL table.
+	 * If range is not null then only the rows where dateColumn is within the range are returned.
+	 */
+	public RecordKeySet getKeys(String tableName, String dateColumn, DateTimeRange range) throws SQLException {
+		assert tableName != null;
+		Generator generator = database.getGenerator();
+		String stmtText = "SELECT " + generator.sqlName("sys_id") + " FROM " + generator.sqlTableName(tableName);
+		boolean hasStart = range != null && range.hasStart();
+		boolean hasEnd   = range != null && range.hasEnd();
+		if (hasStart || hasEnd) {
+			assert dateColumn != null;
+			stmtText += " WHERE ";
+			String columnName = generator.sqlName(dateColumn);
+			if (hasStart) stmtText += columnName + " >= ?";
+			if (hasStart && hasEnd) stmtText += " AND ";
+			if (hasEnd) stmtText += columnName + " < ?";
+		}
+		logger.debug(Log.INIT, stmtText);
+		PreparedStatement stmt = dbc.prepareStatement(stmtText);
+		int bind = 0;
+		if (hasStart) stmt.setTimestamp(++bind, range.getStart().toTimestamp());
+		if (hasEnd)   stmt.setTimestamp(++bind, range.getEnd().toTimestamp());
+		RecordKeySet result = new RecordKeySet();
+		ResultSet rs = stmt.executeQuery();
+		while (rs.next()) result.add(new RecordKey(rs.getString(1)));
+		rs.close();
+		return result;
+	}
 }
@@ -0,0 +1,212 @@
+package sndml.loader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import sndml.servicenow.EncodedQuery;
+import sndml.servicenow.JsonResponseError;
+import sndml.servicenow.RestTableReader;
+import sndml.servicenow.ServiceNowException;
+import sndml.servicenow.Table;
+import sndml.servicenow.TableReader;
+import sndml.util.DatePartition;
+import sndml.util.DatePartitionSet;
+import sndml.util.DateSpanPartition;
+import sndml.util.DateTimeRange;
+import sndml.util.Log;
+import sndml.util.PartitionInterval;
+
+/**
+ * Determines the number of rows in every partition of a {@link DatePartitionSet}
+ * before any partition is read, so that the partition readers do not need to
+ * call the Stats API one at a time, and empty partitions can be skipped.
+ * <p>
+ * The counts are obtained with a single Batch API request which contains
+ * one Stats API call per partition. If the Batch API is not available
+ * then the Stats API is called separately for each partition.
+ * <p>
+ * For <code>partition: auto</code> the planner also chooses the partitions.
+ * See {@link #planAuto(DateTimeRange, int)}.
+ */
+public class DatePartitionPlanner {
+
+	/**
+	 * Intervals used by {@link #planAuto(DateTimeRange, int)}, from coarsest to finest.
+	 * Each interval boundary is also a boundary of the following intervals.
+	 */
+	static final PartitionInterval[] LEVELS = {
+		PartitionInterval.YEAR, PartitionInterval.MONTH, PartitionInterval.DAY,
+		PartitionInterval.HOUR, PartitionInterval.FIVE_MINUTE };
+
+	/**
+	 * Smallest default partition size for {@link #defaultTarget(int, int)}.
+	 */
+	static final int MIN_TARGET_ROWS = 10000;
+
+	final Table table;
+	final JobConfig config;
+	private boolean batchAvailable = true;
+	private Map<String, Integer> plannedCounts = null;
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	public DatePartitionPlanner(Table table, JobConfig config) {
+		this.table = table;
+		this.config = config;
+	}
+
+	/**
+	 * Return the expected number of rows for each partition, indexed by partition name.
+	 */
+	public Map<String, Integer> plan(Iterable<DatePartition> parts) throws IOException {
+		List<DatePartition> list = new ArrayList<DatePartition>();
+		for (DatePartition part : parts) list.add(part);
+		int[] counts = count(list);
+		Map<String, Integer> result = new HashMap<String, Integer>();
+		int empty = 0;
+		for (int i = 0; i < counts.length; ++i) {
+			result.put(list.get(i).getName(), counts[i]);
+			if (counts[i] == 0) empty += 1;
+		}
+		logger.info(Log.INIT, String.format(
+			"planned %d partitions (%d empty)", counts.length, empty));
+		plannedCounts = result;
+		return result;
+	}
+
+	/**
+	 * Return the expected number of rows for each partition from the most recent plan,
+	 * indexed by partition name.
+	 */
+	public Map<String, Integer> getPlannedCounts() {
+		return plannedCounts;
+	}
+
+	/**
+	 * Return a target number of rows per partition, so that there are
+	 * approximately four partitions per thread.
+	 */
+	static int defaultTarget(int expected, int threads) {
+		return Math.max(MIN_TARGET_ROWS, expected / (4 * Math.max(1, threads)));
+	}
+
+	/**
+	 * <p>Divide a range into partitions with approximately equal numbers of rows.</p>
+	 *
+	 * <p>The range is first divided into years. Any partition with more than
+	 * <code>targetRows</code> is divided into months, then days, then hours,
+	 * and then five minute intervals. All of the partitions at one level are counted
+	 * with a single batch request. Adjacent partitions are then merged as long as
+	 * the total does not exceed <code>targetRows</code>.</p>
+	 *
+	 * @return A list of partitions, beginning with the most recent
+	 */
+	public List<DatePartition> planAuto(DateTimeRange range, int targetRows) throws IOException {
+		assert targetRows > 0;
+		Map<DatePartition, Integer> leaves = new HashMap<DatePartition, Integer>();
+		List<DatePartition> current = new ArrayList<DatePartition>();
+		for (DatePartition part : new DatePartitionSet(range, LEVELS[0])) current.add(part);
+		for (int level = 0; level < LEVELS.length && current.size() > 0; ++level) {
+			int[] counts = count(current);
+			boolean finest = (level == LEVELS.length - 1);
+			List<DatePartition> dense = new ArrayList<DatePartition>();
+			for (int i = 0; i < counts.length; ++i) {
+				if (counts[i] > targetRows && !finest)
+					dense.add(current.get(i));
+				else
+					leaves.put(current.get(i), counts[i]);
+			}
+			logger.debug(Log.INIT, String.format("level=%s parts=%d dense=%d",
+				LEVELS[level], current.size(), dense.size()));
+			current = new ArrayList<DatePartition>();
+			if (!finest) {
+				for (DatePartition part : dense) {
+					for (DatePartition child : new DatePartitionSet(part.getRange(), LEVELS[level + 1]))
+						current.add(child);
+				}
+			}
+		}
+		List<DatePartition> result = merge(leaves, targetRows);
+		plannedCounts = new HashMap<String, Integer>();
+		for (DatePartition part : result) plannedCounts.put(part.getName(), leaves.get(part));
+		logger.info(Log.INIT, String.format(
+			"planned %d partitions target=%d", result.size(), targetRows));
+		return result;
+	}
+
+	/**
+	 * Merge adjacent partitions as long as the combined count does not exceed the target.
+	 * The merged partitions and their counts are returned in the same map.
+	 *
+	 * @return A list of partitions, beginning with the most recent
+	 */
+	static List<DatePartition> merge(Map<DatePartition, Integer> counts, int targetRows) {
+		List<DatePartition> sorted = new ArrayList<DatePartition>(counts.keySet());
+		sorted.sort((a, b) -> a.getStart().compareTo(b.getStart()));
+		List<DatePartition> result = new ArrayList<DatePartition>();
+		Map<DatePartition, Integer> merged = new HashMap<DatePartition, Integer>();
+		int i = 0;
+		while (i < sorted.size()) {
+			DatePartition first = sorted.get(i);
+			int total = counts.get(first);
+			int j = i + 1;
+			while (j < sorted.size() && total + counts.get(sorted.get(j)) <= targetRows) {
+				total += counts.get(sorted.get(j));
+				j += 1;
+			}
+			DatePartition last = sorted.get(j - 1);
+			DatePartition part;
+			if (j == i + 1) {
+				part = first;
+			}
+			else {
+				// The finer interval, so that both start and end are on a boundary
+				PartitionInterval interval =
+					first.getInterval().compareTo(last.getInterval()) > 0 ?
+					first.getInterval() : last.getInterval();
+				part = new DateSpanPartition(interval, first.getStart(), last.getEnd());
+			}
+			result.add(part);
+			merged.put(part, total);
+			i = j;
+		}
+		Collections.reverse(result);
+		counts.clear();
+		counts.putAll(merged);
+		return result;
+	}
+
+	/**
+	 * Count the rows in each partition using the same query that the partition reader will use.
+	 */
+	private int[] count(List<DatePartition> parts) throws IOException {
+		List<EncodedQuery> queries = new ArrayList<EncodedQuery>();
+		for (DatePartition part : parts) {
+			TableReader partReader = new RestTableReader(table);
+			config.configureReader(partReader, part);
+			queries.add(partReader.getStatsQuery());
+		}
+		if (batchAvailable) {
+			try {
+				return table.rest().getCounts(queries);
+			}
+			catch (ServiceNowException | JsonResponseError e) {
+				logger.warn(Log.INIT, "batch request failed: " + e.getMessage());
+				batchAvailable = false;
+			}
+		}
+		int[] result = new int[queries.size()];
+		for (int i = 0; i < result.length; ++i) {
+			result[i] = table.rest().getStats(queries.get(i), false).getCount();
+		}
+		return result;
+	}
+
+}
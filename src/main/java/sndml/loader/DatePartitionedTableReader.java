@@ -2,13 +2,11 @@ package sndml.loader;
 
 import java.io.IOException;
 import java.sql.SQLException;
-import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -18,6 +16,7 @@ import sndml.servicenow.*;
 import sndml.util.DatePartition;
 import sndml.util.DatePartitionSet;
 import sndml.util.DateTimeRange;
+import sndml.util.KeyPartition;
 import sndml.util.PartitionInterval;
 import sndml.util.Log;
 import sndml.util.Metrics;
@@ -31,9 +30,16 @@ public final class DatePartitionedTableReader extends TableReader {
 	final PartitionInterval interval;
 	
 	private DateTimeRange range;
-	private DatePartitionSet parts;
-	private List<Future<Metrics>> futures;
+	private Iterable<DatePartition> parts;
+	private Map<String, Integer> plan = null; // expected rows by partition name
+	private final Map<TableReader, DatePartition> readerParts = 
+		Collections.synchronizedMap(new IdentityHashMap<TableReader, DatePartition>());
 	
+	private final Map<TableReader, Session> leases = 
+		Collections.synchronizedMap(new IdentityHashMap<TableReader, Session>());
+	
+	private CheckpointFile checkpoint = null;
+	private SessionPool sessionPool = null;
 	private Logger logger = LoggerFactory.getLogger(this.getClass());
 		
 	public DatePartitionedTableReader(Table table, JobConfig config, DatabaseWrapper db) {
@@ -49,11 +55,32 @@ public final class DatePartitionedTableReader extends TableReader {
 		this.threads = (config.getThreads()==null) ? 1 : config.getThreads();
 	}
 		
-	public DatePartitionSet getPartitions() {
+	/**
+	 * Return the partitions. For <code>partition: auto</code> this is a list
+	 * which was computed by the {@link DatePartitionPlanner}.
+	 */
+	public Iterable<DatePartition> getPartitions() {
 		assert parts != null : "Not initialized";
 		return parts;
 	}
 		
+	/**
+	 * Partitions which completed in a previous run will be skipped,
+	 * and partitions which were partially completed will be resumed.
+	 */
+	public void setCheckpoint(CheckpointFile checkpoint) {
+		if (initialized) throw new IllegalStateException();
+		this.checkpoint = checkpoint;
+	}
+
+	/**
+	 * Partition threads will use sessions from this pool.
+	 * If a pool is not specified then one is created for the duration of the job.
+	 */
+	public void setSessionPool(SessionPool pool) {
+		this.sessionPool = pool;
+	}
+
 	@SuppressWarnings("unused")
 	private int getThreadCount() {
 		return this.threads;
@@ -64,30 +91,6 @@ public final class DatePartitionedTableReader extends TableReader {
 		return this.metrics;
 	}
 
-	private int numPartsTotal() {
-		if (futures == null) return 0;
-		return futures.size();
-	}
-		
-	@SuppressWarnings("unused")
-	private int numPartsComplete() {
-		assert futures != null;
-		int count = 0;
-		for (Future<Metrics> part : futures) {
-			count += (part.isDone() ? 1 : 0);
-		}
-		return count;
-	}
-
-	private int numPartsIncomplete() {
-		assert futures != null;
-		int count = 0;
-		for (Future<Metrics> part : futures) {
-			count += (part.isDone() ? 0 : 1);
-		}
-		return count;
-	}
-	
 	@Override
 	public void prepare(RecordWriter writer, Metrics metrics, ProgressLogger progress) 
 			throws IOException, InterruptedException {
@@ -96,9 +99,10 @@ public final class DatePartitionedTableReader extends TableReader {
 //		assert metrics != null;
 //		assert progress != null;
 		// Use Stats API to determine min and max dates
+		// of either sys_created_on or sys_updated_on
 		EncodedQuery query = this.getQuery();
 		logger.debug(Log.INIT, String.format("initialize query=\"%s\"", query));
-		TableStats stats = table.rest().getStats(query, true);
+		TableStats stats = table.rest().getStats(query, config.getPartitionDateField());
 		Integer expected = stats.getCount();
 		logger.debug(Log.INIT, String.format("expected=%d", expected));	
 		if (expected == 0) {
@@ -106,11 +110,25 @@ public final class DatePartitionedTableReader extends TableReader {
 			return;
 		}
 		else {
-			range = stats.getCreated();
+			range = config.getPartitionByUpdated() ? stats.getUpdated() : stats.getCreated();
 			assert range.getStart() != null : "range.start is null";
 			assert range.getEnd() != null : "range.end is null";
 		}
-		this.parts = new DatePartitionSet(range, interval);
+		// TableSynchronizer must process empty partitions to detect deletes
+		boolean skipEmpty = (config.getAction() != Action.SYNC);
+		if (config.getAutoPartition()) {
+			DatePartitionPlanner planner = new DatePartitionPlanner(table, config);
+			int targetRows = (config.getPartitionRows() != null) ? config.getPartitionRows() :
+				DatePartitionPlanner.defaultTarget(expected, threads);
+			this.parts = planner.planAuto(range, targetRows);
+			if (skipEmpty) plan = planner.getPlannedCounts();
+		}
+		else {
+			DatePartitionSet partSet = new DatePartitionSet(range, interval);
+			this.parts = partSet;
+			if (skipEmpty && partSet.computeSize() > 1)
+				plan = new DatePartitionPlanner(table, config).plan(partSet);
+		}
 		if (range == null) 
 			logger.info(Log.INIT, "expected=0; empty partition created");
 		else 
@@ -119,14 +137,16 @@ public final class DatePartitionedTableReader extends TableReader {
 		super.endPrepare(expected);
 	}
 	
-	private TableReader createReader(DatePartition datePart) 
+	private TableReader createReader(DatePartition datePart, Session mySession) 
 			throws IOException, SQLException, InterruptedException, JobCancelledException {
 		String partName = datePart.getName();
-		boolean createNewSession = (threads > 1) ? true : false;
-		Session mySession = createNewSession ? table.getSession().duplicate() : table.getSession();
-		Table myTable = createNewSession ? mySession.table(table.getName()) : table;
-		 
+		Table myTable = (mySession == table.getSession()) ? table : mySession.table(table.getName());
+		Integer planned = (plan == null) ? null : plan.get(partName);
 		TableReader partReader = config.createReader(myTable, db, mySession, datePart);
+		if (fieldNames != null) partReader.setFields(fieldNames);
+		if (checkpoint != null && !checkpoint.attach(partReader, this.metrics)) return null;
+		if (planned != null && partReader instanceof RestTableReader)
+			((RestTableReader) partReader).setPlannedCount(planned);
 		String jobName = config.getName();
 		String partReaderName = Objects.isNull(partName) ? jobName : jobName + "." + partName;
 		assert partReaderName != null;
@@ -135,6 +155,77 @@ public final class DatePartitionedTableReader extends TableReader {
 		partReader.prepare(writer, partMetrics, partLogger);
 		return partReader;		
 	}
+	
+	private boolean isEmpty(DatePartition datePart) {
+		Integer planned = (plan == null) ? null : plan.get(datePart.getName());
+		if (planned != null && planned == 0) {
+			logger.debug(Log.INIT, "skipping empty partition " + datePart.getName());
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Create a reader which uses a session from the pool.
+	 * The session is returned to the pool by {@link #releaseSession(TableReader)}.
+	 * If remainder is not null then the reader is for a split, and null is returned
+	 * if there is no free session, since the parent already holds a session
+	 * and waiting for another could deadlock.
+	 */
+	private TableReader createPooledReader(DatePartition datePart, KeyPartition remainder)
+			throws IOException, SQLException, InterruptedException, JobCancelledException {
+		Session mySession = (remainder == null) ? sessionPool.acquire() : sessionPool.tryAcquire();
+		if (mySession == null) return null;
+		TableReader partReader = null;
+		try {
+			if (remainder == null) {
+				partReader = createReader(datePart, mySession);
+			}
+			else {
+				Table myTable = mySession.table(table.getName());
+				partReader = config.createReader(myTable, db, mySession, datePart);
+				if (fieldNames != null) partReader.setFields(fieldNames);
+				partReader.setKeyRange(remainder);
+			}
+		}
+		finally {
+			if (partReader == null) sessionPool.release(mySession);
+		}
+		if (partReader == null) return null;
+		leases.put(partReader, mySession);
+		readerParts.put(partReader, datePart);
+		return partReader;
+	}
+	
+	private void releaseSession(TableReader partReader) {
+		Session mySession = leases.remove(partReader);
+		if (mySession != null) sessionPool.release(mySession, partReader.getMetrics());
+	}
+
+	/**
+	 * Create a reader for part of the keys of a running partition.
+	 * Used by {@link PartitionScheduler} when a thread is idle.
+	 * Returns null if there is no free session in the pool.
+	 */
+	private TableReader createSplitReader(TableReader parent, KeyPartition remainder) 
+			throws IOException, SQLException, InterruptedException, JobCancelledException {
+		DatePartition datePart = readerParts.get(parent);
+		assert datePart != null;
+		TableReader partReader = createPooledReader(datePart, remainder);
+		if (partReader == null) return null;
+		String partReaderName = parent.getReaderName() + "." + remainder.getName();
+		partReader.setReaderName(partReaderName);
+		Metrics partMetrics = new Metrics(partReaderName, this.metrics);
+		ProgressLogger partLogger = progress.newPartLogger(partMetrics, remainder);
+		try {
+			partReader.prepare(writer, partMetrics, partLogger);
+		}
+		catch (IOException | InterruptedException | RuntimeException e) {
+			releaseSession(partReader);
+			throw e;
+		}
+		return partReader;
+	}
 
 	@Override
 	public Metrics call() throws IOException, SQLException, InterruptedException, JobCancelledException {
@@ -144,33 +235,45 @@ public final class DatePartitionedTableReader extends TableReader {
 			progress.logComplete();
 			return metrics;
 		}
-		if (threads > 1) {			
-			futures = new ArrayList<Future<Metrics>>();
-			logger.info(Log.INIT, String.format("starting %d threads", threads));			
-			ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+		if (threads > 1) {
+			boolean ownPool = (sessionPool == null);
+			if (ownPool) sessionPool = new SessionPool(table.getSession(), threads);
+			sessionPool.checkCapacity(threads);
+			PartitionScheduler scheduler = 
+				new PartitionScheduler(config.getName(), threads, this::createSplitReader);
+			scheduler.setCompletion(this::releaseSession);
+			// Each reader is created when a thread is available, 
+			// so that it only holds a session while it is running
 			for (DatePartition partRange : parts) {
-				TableReader partReader = createReader(partRange);
-				logger.debug("Submit " + metrics.getName());
-				Future<Metrics> future = executor.submit(partReader);
-				futures.add(future);				
+				if (isEmpty(partRange)) continue;
+				scheduler.add(() -> createPooledReader(partRange, null));
+			}
+			try {
+				scheduler.run();
+				if (!metrics.getNodeInput().isEmpty())
+					logger.info(Log.FINISH, "rows by node=" + metrics.getNodeInput());
 			}
-			executor.shutdown();
-			while (!executor.awaitTermination(60, TimeUnit.SECONDS)) {
-				logger.info(Log.FINISH, String.format("Waiting for %d / %d partitions to complete", 
-					numPartsIncomplete(), numPartsTotal()));
+			finally {
+				if (ownPool) {
+					sessionPool.close();
+					sessionPool = null;
+				}
 			}
 		}
 		else {
 			for (DatePartition partRange : parts) {
-				TableReader partReader = createReader(partRange);
+				if (isEmpty(partRange)) continue;
+				TableReader partReader = createReader(partRange, table.getSession());
+				if (partReader == null) continue;
 				assert partReader.getProgressLogger() != null;
 				partReader.call();				
 			}
 		}
 		progress.logComplete();
 		// Free resources
-		futures = null;
 		parts = null;
+		plan = null;
+		readerParts.clear();
 		return metrics;
 	}
 
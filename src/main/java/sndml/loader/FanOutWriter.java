@@ -0,0 +1,217 @@
+package sndml.loader;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import sndml.agent.JobCancelledException;
+import sndml.servicenow.EncodedQuery;
+import sndml.servicenow.RecordList;
+import sndml.servicenow.RecordWriter;
+import sndml.servicenow.Session;
+import sndml.servicenow.Table;
+import sndml.servicenow.TableRecord;
+import sndml.util.FieldNames;
+import sndml.util.Log;
+import sndml.util.Metrics;
+import sndml.util.Parameters;
+import sndml.util.ProgressLogger;
+
+/**
+ * <p>{@link RecordWriter} which writes the records of a parent table
+ * (<i>e.g.</i> <code>task</code>) to the parent target table, and also routes each record
+ * to the target table of its class, based on <code>sys_class_name</code>.
+ * In this way a table hierarchy can be loaded while reading each record only once.</p>
+ *
+ * <p>The parent record does not contain the fields which exist only in the child table.
+ * If the child target table has any of these columns, then they are read for the
+ * records of each page with a second request to the child table, using a <code>sys_idIN</code>
+ * query which returns only the child fields.</p>
+ *
+ * <p>A record is routed only if its class exactly matches one of the child tables.</p>
+ *
+ * <p>The parent and child writers share a database connection, so the child records
+ * are written while holding the lock of the parent writer. The child fields are read
+ * before the lock is acquired.</p>
+ */
+public class FanOutWriter extends RecordWriter {
+
+	/**
+	 * Maximum number of keys in a single request for child fields.
+	 */
+	public static final int BATCH_SIZE = 100;
+
+	final DatabaseTableWriter parent;
+	final Map<String, DatabaseTableWriter> children;
+	final Map<String, FieldNames> childFields = new HashMap<String, FieldNames>();
+	final Map<String, Metrics> childMetrics = new HashMap<String, Metrics>();
+
+	final private Logger logger = Log.getLogger(this.getClass());
+
+	/**
+	 * @param parent Writer for the parent table
+	 * @param children Writers for the child tables, indexed by class name, which will be opened
+	 * @param parentFields Fields which are read from the parent table
+	 * @param jobName Used to name the metrics of the child writers
+	 */
+	public FanOutWriter(DatabaseTableWriter parent, Map<String, DatabaseTableWriter> children,
+			FieldNames parentFields, String jobName) throws IOException, SQLException {
+		this.parent = parent;
+		this.children = children;
+		for (Map.Entry<String, DatabaseTableWriter> child : children.entrySet()) {
+			String name = child.getKey();
+			Metrics metrics = new Metrics(jobName + "." + name);
+			child.getValue().open(metrics);
+			childMetrics.put(name, metrics);
+			FieldNames fields = new FieldNames();
+			for (String fieldname : child.getValue().getFieldNames()) {
+				if (!parentFields.contains(fieldname)) fields.add(fieldname);
+			}
+			childFields.put(name, fields);
+			logger.info(Log.INIT, String.format("child=%s fields=%s", name, fields));
+		}
+	}
+
+	@Override
+	public void processRecords(RecordList recs, Metrics metrics, ProgressLogger progressLogger)
+			throws JobCancelledException, IOException, SQLException {
+		parent.processRecords(recs, metrics, progressLogger);
+		Map<String, List<TableRecord>> classes = new LinkedHashMap<String, List<TableRecord>>();
+		for (TableRecord rec : recs) {
+			String className = rec.getValue("sys_class_name");
+			if (className == null || !children.containsKey(className)) continue;
+			List<TableRecord> list = classes.get(className);
+			if (list == null) {
+				list = new ArrayList<TableRecord>();
+				classes.put(className, list);
+			}
+			list.add(rec);
+		}
+		Map<String, RecordList> childRecs = new LinkedHashMap<String, RecordList>();
+		for (Map.Entry<String, List<TableRecord>> entry : classes.entrySet()) {
+			childRecs.put(entry.getKey(), getChildRecords(entry.getKey(), entry.getValue()));
+		}
+		synchronized (parent) {
+			for (Map.Entry<String, RecordList> entry : childRecs.entrySet()) {
+				String className = entry.getKey();
+				children.get(className).processRecords(entry.getValue(), childMetrics.get(className), progressLogger);
+			}
+		}
+	}
+
+	/**
+	 * Merge the parent records with the fields that are only in the child table.
+	 */
+	private RecordList getChildRecords(String className, List<TableRecord> parentRecs) throws IOException {
+		Session session = parentRecs.get(0).getTable().getSession();
+		Table childTable = session.table(className);
+		FieldNames fields = childFields.get(className);
+		Map<String, TableRecord> childValues = new HashMap<String, TableRecord>();
+		if (!fields.isEmpty()) {
+			for (int start = 0; start < parentRecs.size(); start += BATCH_SIZE) {
+				List<TableRecord> slice = parentRecs.subList(start, Math.min(start + BATCH_SIZE, parentRecs.size()));
+				List<String> keys = new ArrayList<String>(slice.size());
+				for (TableRecord rec : slice) keys.add(rec.getKey().toString());
+				Parameters params = new Parameters();
+				params.add("sysparm_query", new EncodedQuery(childTable).
+					addQuery("sys_id", EncodedQuery.IN, String.join(",", keys)).toString());
+				params.add("sysparm_fields", "sys_id," + fields.toString());
+				params.add("sysparm_exclude_reference_link", "true");
+				params.add("sysparm_limit", Integer.toString(keys.size()));
+				for (TableRecord rec : childTable.rest().getRecords(params)) {
+					childValues.put(rec.getKey().toString(), rec);
+				}
+			}
+			logger.debug(Log.PROCESS, String.format(
+				"read %s fields for %d of %d records", className, childValues.size(), parentRecs.size()));
+		}
+		RecordList result = new RecordList(childTable, parentRecs.size());
+		for (TableRecord rec : parentRecs) {
+			result.add(new ChildRecord(childTable, rec, childValues.get(rec.getKey().toString()), fields));
+		}
+		return result;
+	}
+
+	@Override
+	public RecordWriter open(Metrics metrics) throws IOException, SQLException {
+		parent.open(metrics);
+		return this;
+	}
+
+	@Override
+	public void close(Metrics metrics) {
+		parent.close(metrics);
+		for (Map.Entry<String, DatabaseTableWriter> child : children.entrySet()) {
+			Metrics m = childMetrics.get(child.getKey());
+			child.getValue().close(m);
+			logger.info(Log.FINISH, String.format("child=%s inserted=%d updated=%d skipped=%d",
+				child.getKey(), m.getInserted(), m.getUpdated(), m.getSkipped()));
+		}
+	}
+
+	/**
+	 * A record from the parent table, combined with the fields that only exist in the child table.
+	 */
+	static class ChildRecord extends TableRecord {
+
+		final TableRecord parentRec;
+		final TableRecord childRec; // null if the child fields were not read
+		final FieldNames childFields;
+
+		ChildRecord(Table table, TableRecord parentRec, TableRecord childRec, FieldNames childFields) {
+			super(table);
+			this.parentRec = parentRec;
+			this.childRec = childRec;
+			this.childFields = childFields;
+		}
+
+		@Override
+		public String getValue(String fieldname) {
+			if (childFields.contains(fieldname))
+				return childRec == null ? null : childRec.getValue(fieldname);
+			return parentRec.getValue(fieldname);
+		}
+
+		@Override
+		public String getDisplayValue(String fieldname) {
+			if (childFields.contains(fieldname))
+				return childRec == null ? null : childRec.getDisplayValue(fieldname);
+			return parentRec.getDisplayValue(fieldname);
+		}
+
+		@Override
+		public Iterator<String> keys() {
+			return getFieldNames().iterator();
+		}
+
+		@Override
+		public FieldNames getFieldNames() {
+			FieldNames names = parentRec.getFieldNames();
+			for (String fieldname : childFields) {
+				if (!names.contains(fieldname)) names.add(fieldname);
+			}
+			return names;
+		}
+
+		@Override
+		public String asText(boolean pretty) {
+			ObjectNode obj = new ObjectMapper().createObjectNode();
+			for (String fieldname : getFieldNames()) {
+				obj.put(fieldname, getValue(fieldname));
+			}
+			return pretty ? obj.toPrettyString() : obj.toString();
+		}
+
+	}
+
+}
@@ -22,6 +22,9 @@ import sndml.util.DatePartition;
 import sndml.util.DateTime;
 import sndml.util.DateTimeRange;
 import sndml.util.FieldNames;
+import sndml.util.KeyPartition;
+import sndml.util.KeyPartitionSet;
+import sndml.util.Partition;
 import sndml.util.PartitionInterval;
 
 @JsonFormat(with = JsonFormat.Feature.ACCEPT_CASE_INSENSITIVE_PROPERTIES)
@@ -43,8 +46,15 @@ public class JobConfig {
 	@JsonIgnore public DateTimeRange createdRange;
 	@JsonIgnore public DateTime sinceDate;
 	public String filter;
-	public PartitionInterval partition;
-	public Integer pageSize;
+	@JsonProperty("partition") public String partitionExpr;
+	@JsonIgnore public PartitionInterval partitionInterval;
+	@JsonIgnore public KeyPartitionSet keyPartitions;
+	@JsonIgnore public boolean autoPartition;
+	public Integer partitionRows; // partition auto only
+	public String partitionField; // created or updated; date partitions only; updated requires Action UPDATE with Since
+	@JsonProperty("pagesize") public String pageSizeExpr;
+	@JsonIgnore public Integer pageSize;
+	@JsonIgnore public boolean autoPageSize;
 	public Integer minRows;
 	public Integer maxRows;
 	public String sql; // Action EXECUTE only
@@ -53,6 +63,20 @@ public class JobConfig {
 	public Boolean autoCreate;
 	@JsonIgnore private FieldNames includedColumns;
 	public Integer threads;
+	public Integer prefetch;
+	public String checkpoint; // file name
+	public String reader; // rest or csv; Action INSERT only
+	public Boolean displayValues; // resolve dv_ columns; Action INSERT or UPDATE only
+	public String children; // child tables of source; Action INSERT or UPDATE only
+	public Boolean prune; // apply sys_audit_delete since the same date; Action UPDATE only
+	@JsonProperty("groupby") public String groupBy; // Action AGGREGATE only
+	public Boolean count; // Action AGGREGATE only
+	public String sum; // Action AGGREGATE only
+	public String avg; // Action AGGREGATE only
+	public String min; // Action AGGREGATE only
+	public String max; // Action AGGREGATE only
+	@JsonProperty("bucket") public String bucketExpr; // Action AGGREGATE only
+	@JsonIgnore public PartitionInterval bucketInterval;
 	public AppJobStatus status; // Used by ConfigFactory
 	static EnumSet<Action> anyLoadAction =
 			EnumSet.of(Action.INSERT, Action.UPDATE, Action.SYNC);
@@ -78,6 +102,27 @@ public class JobConfig {
 		return new DateTimeRange(getSince(), null);	
 	}
 	
+	DateTimeRange getUpdatedRange(DatePartition datePart) {
+		DateTimeRange range = 
+			datePart == null ? getUpdatedRange() : datePart.intersect(getUpdatedRange());
+		return range;
+	}
+	
+	/**
+	 * Return true if date partitions are based on <code>sys_updated_on</code>
+	 * rather than <code>sys_created_on</code>.
+	 */
+	boolean getPartitionByUpdated() { 
+		return "updated".equalsIgnoreCase(this.partitionField);
+	}
+	
+	/**
+	 * Return the name of the field on which date partitions are based.
+	 */
+	String getPartitionDateField() {
+		return getPartitionByUpdated() ? "sys_updated_on" : "sys_created_on";
+	}
+	
 	EncodedQuery getFilter(Table table) {
 		if (docKey != null) {
 			// Single Record
@@ -88,16 +133,33 @@ public class JobConfig {
 		return new EncodedQuery(table, filter);		
 	}
 		
-	PartitionInterval getPartitionInterval() { return this.partition; }
+	PartitionInterval getPartitionInterval() { return this.partitionInterval; }
+	boolean getAutoPartition() { return this.autoPartition; }
+	Integer getPartitionRows() { return this.partitionRows; }
+	KeyPartitionSet getKeyPartitions() { return this.keyPartitions; }
 	
 	RecordKey getDocKey() { return this.docKey; }
 	String getSql() { return this.sql; }
 //	String getSqlBefore() {	return this.sqlBefore; }
 //	String getSqlAfter() { return this.sqlAfter; }
 	Integer getPageSize() { return this.pageSize; }
+	boolean getAutoPageSize() { return this.autoPageSize; }
 	Integer getMinRows() { return this.minRows;	}
 	Integer getMaxRows() { return this.maxRows;	}
 	Integer getThreads() { return this.threads;	}	
+	Integer getPrefetch() { return this.prefetch; }
+	String getCheckpoint() { return this.checkpoint; }
+	boolean getCsvReader() { return "csv".equalsIgnoreCase(this.reader); }
+	FieldNames getChildren() { return this.children == null ? null : new FieldNames(this.children); }
+	boolean getDisplayValues() { return this.displayValues == null ? false : this.displayValues.booleanValue(); }
+	boolean getPrune() { return this.prune == null ? false : this.prune.booleanValue(); }
+	FieldNames getGroupBy() { return this.groupBy == null ? null : new FieldNames(this.groupBy); }
+	boolean getCount() { return this.count == null ? true : this.count.booleanValue(); }
+	FieldNames getSum() { return this.sum == null ? null : new FieldNames(this.sum); }
+	FieldNames getAvg() { return this.avg == null ? null : new FieldNames(this.avg); }
+	FieldNames getMin() { return this.min == null ? null : new FieldNames(this.min); }
+	FieldNames getMax() { return this.max == null ? null : new FieldNames(this.max); }
+	PartitionInterval getBucket() { return this.bucketInterval; }
 
 	boolean getAutoCreate() { 
 		return this.autoCreate == null ? true : this.autoCreate.booleanValue();	
@@ -134,6 +196,9 @@ public class JobConfig {
 	public void initialize(ConnectionProfile profile, DateCalculator dateCalculator) {
 		updateCoreFields();
 		updateDateFields(dateCalculator);
+		updatePartitionFields();
+		updateBucket();
+		updatePageSize();
 		if (profile != null) updateFromProfile(profile);
 	}
 
@@ -184,6 +249,62 @@ public class JobConfig {
 		}			
 	}
 
+	/**
+	 * Partition may be a {@link PartitionInterval} such as "month"
+	 * or a number of sys_id ranges such as "keys16".
+	 */
+	synchronized private void updatePartitionFields() {
+		partitionInterval = null;
+		keyPartitions = null;
+		autoPartition = false;
+		if (partitionExpr == null) return;
+		if (partitionExpr.trim().equalsIgnoreCase("auto")) {
+			autoPartition = true;
+			return;
+		}
+		keyPartitions = KeyPartitionSet.parseName(partitionExpr);
+		if (keyPartitions == null) {
+			try {
+				partitionInterval = PartitionInterval.valueOf(partitionExpr.trim().toUpperCase());
+			} catch (IllegalArgumentException e) {
+				configError("Invalid partition: " + partitionExpr);
+			}
+		}
+	}
+	
+	/**
+	 * Bucket must be a {@link PartitionInterval} such as "month".
+	 */
+	synchronized private void updateBucket() {
+		bucketInterval = null;
+		if (bucketExpr == null) return;
+		try {
+			bucketInterval = PartitionInterval.valueOf(bucketExpr.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			configError("Invalid bucket: " + bucketExpr);
+		}
+	}
+	
+	/**
+	 * Page size may be a positive integer or "auto".
+	 */
+	synchronized private void updatePageSize() {
+		pageSize = null;
+		autoPageSize = false;
+		if (pageSizeExpr == null) return;
+		String value = pageSizeExpr.trim();
+		if (value.equalsIgnoreCase("auto")) {
+			autoPageSize = true;
+			return;
+		}
+		try {
+			pageSize = Integer.valueOf(value);
+		} catch (NumberFormatException e) {
+			configError("Invalid pagesize: " + pageSizeExpr);
+		}
+		if (pageSize < 1) configError("Invalid pagesize: " + pageSizeExpr);
+	}
+	
 	@JsonIgnore
 	void setCreated(DateTimeRange value) {
 		this.createdRange = value;
@@ -239,9 +360,10 @@ public class JobConfig {
 				
 		booleanValidForActions("Truncate", truncate, EnumSet.of(Action.INSERT));
 		booleanValidForActions("Drop", dropTable, EnumSet.of(Action.CREATE));
-		validForActions("Created", createdRange, Action.INSERT_UPDATE_SYNC);
-		validForActions("Partition", partition, Action.INSERT_UPDATE_SYNC);
-		validForActions("Filter", filter, Action.INSERT_UPDATE_SYNC);
+		validForActions("Created", createdRange, Action.INSERT_UPDATE_SYNC_AGGREGATE);
+		validForActions("Partition", partitionExpr, Action.INSERT_UPDATE_SYNC);
+		validForActions("Key partition", keyPartitions, Action.INSERT_UPDATE);
+		validForActions("Filter", filter, Action.INSERT_UPDATE_SYNC_AGGREGATE);
 		validForActions("Since", sinceDate, Action.INSERT_UPDATE_PRUNE);
 		validForActions("SQL", sql, Action.EXECUTE_ONLY);
 		validForActions("Document", docKey, Action.ROWSYNC_ONLY);
@@ -253,8 +375,84 @@ public class JobConfig {
 		if (action == Action.ROWSYNC && docKey == null)
 			configError("Missing Document");
 		
-		if (threads != null && partition == null)
-			configError("Threads only valid with Partition");
+		if (threads != null && partitionExpr == null && action != Action.SYNC)
+			configError("Threads only valid with Partition or Action SYNC");
+		if (threads != null && threads < 1)
+			configError("Threads must be greater than 0");
+		if (partitionRows != null && !autoPartition)
+			configError("PartitionRows only valid with Partition auto");
+		if (partitionRows != null && partitionRows < 1)
+			configError("PartitionRows must be greater than 0");
+		if (partitionField != null) {
+			if (!partitionField.equalsIgnoreCase("created") && !partitionField.equalsIgnoreCase("updated"))
+				configError("Invalid partitionfield: " + partitionField);
+			if (partitionInterval == null && !autoPartition)
+				configError("PartitionField only valid with date Partition");
+		}
+		// Synchronizer must compare every record in a partition to detect deletes.
+		// A record updated while the job runs moves to a later partition and may be missed,
+		// so it is only safe for UPDATE, where the next run with Since will copy it.
+		if (getPartitionByUpdated()) {
+			validForActions("PartitionField updated", partitionField, EnumSet.of(Action.UPDATE));
+			if (sinceExpr == null) configError("PartitionField updated requires Since");
+		}
+		validForActions("Prefetch", prefetch, Action.INSERT_UPDATE);
+		if (prefetch != null && (prefetch < 0 || prefetch > RestTableReader.MAX_PREFETCH))
+			configError("Prefetch must be between 0 and " + RestTableReader.MAX_PREFETCH);
+		validForActions("Checkpoint", checkpoint, Action.INSERT_UPDATE);
+		// The auto plan depends on the live row counts, so the partition names 
+		// would not match those in the checkpoint file when the job is resumed
+		if (autoPartition && checkpoint != null)
+			configError("Checkpoint not valid with Partition auto");
+		validForActions("Reader", reader, EnumSet.of(Action.INSERT));
+		if (reader != null && !reader.equalsIgnoreCase("rest") && !reader.equalsIgnoreCase("csv"))
+			configError("Invalid reader: " + reader);
+		if (getCsvReader() && prefetch != null)
+			configError("Prefetch not valid with Reader csv");
+		if (getCsvReader() && checkpoint != null)
+			configError("Checkpoint not valid with Reader csv");
+		booleanValidForActions("DisplayValues", displayValues, Action.INSERT_UPDATE);
+		validForActions("Children", children, Action.INSERT_UPDATE);
+		if (children != null) {
+			if (getChildren().isEmpty()) configError("Children not specified");
+			for (String child : getChildren()) {
+				if (!Pattern.compile("[a-z0-9_]+").matcher(child).matches())
+					configError("Invalid child: " + child);
+				if (child.equals(source))
+					configError("Child cannot be the same as source: " + child);
+			}
+		}
+		booleanValidForActions("Prune", prune, EnumSet.of(Action.UPDATE, Action.REFRESH));
+		if (getPrune() && sinceExpr == null)
+			configError("Prune requires Since");
+		if (getPrune() && children != null)
+			configError("Prune not valid with Children");
+		// A restored record which was written before a restart would not be written again,
+		// so its delete would not be cancelled
+		if (getPrune() && checkpoint != null)
+			configError("Prune not valid with Checkpoint");
+		validForActions("GroupBy", groupBy, Action.AGGREGATE_ONLY);
+		validForActions("Count", count, Action.AGGREGATE_ONLY);
+		validForActions("Sum", sum, Action.AGGREGATE_ONLY);
+		validForActions("Avg", avg, Action.AGGREGATE_ONLY);
+		validForActions("Min", min, Action.AGGREGATE_ONLY);
+		validForActions("Max", max, Action.AGGREGATE_ONLY);
+		validForActions("Bucket", bucketExpr, Action.AGGREGATE_ONLY);
+		if (action == Action.AGGREGATE) {
+			if (target.equals(source))
+				configError("Target cannot be the same as source with Action AGGREGATE");
+			FieldNames aggregated = new FieldNames();
+			for (FieldNames names : new FieldNames[] {getGroupBy(), getSum(), getAvg(), getMin(), getMax()}) {
+				if (names == null) continue;
+				for (String name : names) {
+					if (!Pattern.compile("[a-z0-9_]+").matcher(name).matches())
+						configError("Invalid aggregate field: " + name);
+				}
+				aggregated.addAll(names);
+			}
+			if (aggregated.isEmpty() && !getCount())
+				configError("Nothing to aggregate");
+		}
 		
 //		if (sqlBefore != null) logger.warn(Log.INIT, "Deprecated option: SQLBefore");
 //		if (sqlAfter != null) logger.warn(Log.INIT, "Deprecated option: SQLAfter");		
@@ -288,7 +486,7 @@ public class JobConfig {
 		return createReader(table, db, table.getSession(), null);
 	}
 	
-	public TableReader createReader(Table table, DatabaseWrapper db, Session session, DatePartition datePart) 
+	public TableReader createReader(Table table, DatabaseWrapper db, Session session, Partition part) 
 			throws IOException {
 
 		assert table != null;
@@ -303,12 +501,15 @@ public class JobConfig {
 		if (action == Action.SYNC) {
 			// Database connection is required for Synchronizer only
 			assert db != null;
-			reader = new TableSynchronizer(table, db, sqlTableName, getReaderName(datePart));
+			reader = new TableSynchronizer(table, db, sqlTableName, getReaderName(part));
+		}
+		else if (getCsvReader()) {
+			reader = new CsvTableReader(table);
 		}
 		else {
 			reader = new RestTableReader(table);
 		}
-		configureReader(reader, datePart);
+		configureReader(reader, part);
 		return reader;
 	}
 	
@@ -316,22 +517,52 @@ public class JobConfig {
 		configureReader(reader, null);
 	}
 	
-	public void configureReader(TableReader reader, DatePartition datePart) {
+	public void configureReader(TableReader reader, Partition part) {
 		Table table = reader.table;
-		String partName = datePart == null ? null : datePart.getName();
-		String readerName = getReaderName(datePart);
+		String partName = part == null ? null : part.getName();
+		String readerName = getReaderName(part);
+		DatePartition datePart = (part instanceof DatePartition) ? (DatePartition) part : null;
 		reader.setReaderName(readerName);
 		reader.setPartName(partName);
-		reader.setCreatedRange(getCreatedRange(datePart));		
-		reader.setUpdatedRange(getUpdatedRange());
+		if (getPartitionByUpdated()) {
+			reader.setCreatedRange(getCreatedRange(null));
+			reader.setUpdatedRange(getUpdatedRange(datePart));
+		}
+		else {
+			reader.setCreatedRange(getCreatedRange(datePart));
+			reader.setUpdatedRange(getUpdatedRange());
+		}
+		if (part instanceof KeyPartition) reader.setKeyRange((KeyPartition) part);
 		reader.setFilter(getFilter(table));
 		reader.setFields(getColumns());
-		reader.setPageSize(getPageSize());
+		if (getAutoPageSize()) 
+			reader.setAutoPageSize(true);
+		else
+			reader.setPageSize(getPageSize());
 		reader.setMaxRows(getMaxRows());	
+		if (getPrefetch() != null && reader instanceof RestTableReader)
+			((RestTableReader) reader).setPrefetch(getPrefetch());
+		// Without partitions, threads are used to read the inserted and updated records
+		if (getThreads() != null && partitionExpr == null && reader instanceof TableSynchronizer)
+			((TableSynchronizer) reader).setThreads(getThreads());
+	}
+	
+	/**
+	 * Return a string which identifies the rows selected by this job.
+	 * A checkpoint is only valid if the signature has not changed.
+	 * The signature contains the value of <b>since</b> rather than the expression,
+	 * because a relative expression selects different rows when it is evaluated again.
+	 */
+	String getCheckpointSignature() {
+		return String.join("|", String.valueOf(source), String.valueOf(target), 
+			String.valueOf(action), String.valueOf(filter), String.valueOf(createdExpr), 
+			String.valueOf(getSince()), String.valueOf(getTruncate()),
+			String.valueOf(partitionExpr), String.valueOf(partitionRows), String.valueOf(includedColumns))
+			+ (getPartitionByUpdated() ? "|updated" : "");
 	}
 	
-	private String getReaderName(DatePartition datePart) {
-		String partName = datePart == null ? null : datePart.getName();
+	private String getReaderName(Partition part) {
+		String partName = part == null ? null : part.getName();
 		String readerName = partName == null ? jobName : jobName + "." + partName;
 		return readerName;		
 	}
@@ -366,11 +597,27 @@ public class JobConfig {
 			node.put("since", getSince().toString());
 		if (createdRange != null) 
 			node.set("created", getCreatedRange(null).toJsonNode());
-		if (getPartitionInterval() != null) 
-			node.put("partition",  getPartitionInterval().toString());
+		if (partitionExpr != null) 
+			node.put("partition",  partitionExpr);
+		if (partitionRows != null) node.put("partitionrows", partitionRows);
+		if (partitionField != null) node.put("partitionfield", partitionField);
 		if (filter != null) node.put("filter",this.filter);
 		if (includedColumns != null) node.put("columns", includedColumns.toString());
+		if (pageSizeExpr != null) node.put("pagesize", pageSizeExpr);
 		if (minRows != null) node.put("minrows", minRows);
 		if (maxRows != null) node.put("maxrows", maxRows);		
+		if (prefetch != null) node.put("prefetch", prefetch);
+		if (checkpoint != null) node.put("checkpoint", checkpoint);
+		if (reader != null) node.put("reader", reader);
+		if (getDisplayValues()) node.put("displayvalues", true);
+		if (children != null) node.put("children", getChildren().toString());
+		if (getPrune()) node.put("prune", true);
+		if (groupBy != null) node.put("groupby", getGroupBy().toString());
+		if (count != null) node.put("count", getCount());
+		if (sum != null) node.put("sum", getSum().toString());
+		if (avg != null) node.put("avg", getAvg().toString());
+		if (min != null) node.put("min", getMin().toString());
+		if (max != null) node.put("max", getMax().toString());
+		if (bucketExpr != null) node.put("bucket", bucketExpr);
 	}
 }
@@ -1,16 +1,23 @@
 package sndml.loader;
 
+import java.io.File;
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import sndml.agent.JobCancelledException;
 import sndml.servicenow.*;
-import sndml.util.DatePartitionSet;
+import sndml.util.DatePartition;
 import sndml.util.DateTime;
 import sndml.util.DateTimeRange;
+import sndml.util.FieldNames;
 import sndml.util.PartitionInterval;
 import sndml.util.Log;
 import sndml.util.Metrics;
@@ -136,6 +143,9 @@ public class JobRunner implements Runnable, Callable<Metrics> {
 		case ROWSYNC:
 			runRowSync();
 			break;
+		case AGGREGATE:
+			runAggregate();
+			break;
 		default:
 			runLoad();
 		}
@@ -181,6 +191,23 @@ public class JobRunner implements Runnable, Callable<Metrics> {
 			throws SQLException, IOException, InterruptedException, JobCancelledException {
 		String sqlTableName = config.getTarget();
 		assert sqlTableName != null;
+		RestTableReader auditReader = createAuditReader(config.getSince());
+		auditReader.setMaxRows(config.getMaxRows());
+		DatabaseDeleteWriter deleteWriter = 
+			new DatabaseDeleteWriter(dbWrapper, table, sqlTableName, config.getName());
+		ProgressLogger progressLogger = createJobProgressLogger(auditReader);
+		deleteWriter.open(jobMetrics);
+		auditReader.prepare(deleteWriter, jobMetrics, progressLogger);
+		Log.setTableContext(table, config.getName());
+		auditReader.call();
+		deleteWriter.close(jobMetrics);
+	}
+	
+	/**
+	 * Return a reader for the <code>sys_audit_delete</code> records of the table
+	 * which were created on or after since.
+	 */
+	private RestTableReader createAuditReader(DateTime since) {
 		Table audit = readerSession.table("sys_audit_delete");
 		EncodedQuery auditQuery = new EncodedQuery(audit);
 		auditQuery.addQuery("tablename", EncodedQuery.EQUALS, table.getName());
@@ -188,17 +215,33 @@ public class JobRunner implements Runnable, Callable<Metrics> {
 		auditReader.enableStats(true);
 		auditReader.orderByKeys(true);
 		auditReader.setFilter(auditQuery);			
-		DateTime since = config.getSince();
 		auditReader.setCreatedRange(new DateTimeRange(since, null));
-		auditReader.setMaxRows(config.getMaxRows());
+		return auditReader;
+	}
+	
+	/**
+	 * Return a writer which deletes the records in <code>sys_audit_delete</code> 
+	 * since the same date as the updated records.
+	 * The deleted keys are read before any of the updated records.
+	 */
+	private PruningWriter createPruningWriter(RecordWriter target, DateTime since) 
+			throws SQLException, IOException, InterruptedException, JobCancelledException {
+		RestTableReader auditReader = createAuditReader(since);
+		auditReader.setFields(new FieldNames("documentkey"));
+		Metrics auditMetrics = new Metrics(config.getName() + ".audit");
+		RecordListAccumulator accumulator = new RecordListAccumulator(auditReader);
+		auditReader.prepare(accumulator, auditMetrics, createJobProgressLogger(auditReader));
+		auditReader.call();
+		LinkedHashSet<RecordKey> keys = new LinkedHashSet<RecordKey>();
+		for (TableRecord rec : accumulator.getRecords()) {
+			RecordKey key = rec.getKey("documentkey");
+			if (key != null) keys.add(key);
+		}
+		logger.info(Log.INIT, String.format("deleted since %s: %d", since, keys.size()));
 		DatabaseDeleteWriter deleteWriter = 
-			new DatabaseDeleteWriter(dbWrapper, table, sqlTableName, config.getName());
-		ProgressLogger progressLogger = createJobProgressLogger(auditReader);
+			new DatabaseDeleteWriter(dbWrapper, table, config.getTarget(), config.getName());
 		deleteWriter.open(jobMetrics);
-		auditReader.prepare(deleteWriter, jobMetrics, progressLogger);
-		Log.setTableContext(table, config.getName());
-		auditReader.call();
-		deleteWriter.close(jobMetrics);
+		return new PruningWriter(target, deleteWriter, new RecordKeySet(keys));
 	}
 	
 	private void runSync() 
@@ -210,7 +253,7 @@ public class JobRunner implements Runnable, Callable<Metrics> {
 			dbWrapper.createMissingTable(table, sqlTableName, config.getColumns());
 		PartitionInterval partitionInterval = config.getPartitionInterval();
 		TableReader synchronizer;
-		if (partitionInterval == null) {
+		if (partitionInterval == null && !config.getAutoPartition()) {
 			synchronizer = config.createReader(table, dbWrapper);			
 			ProgressLogger progressLogger = createJobProgressLogger(synchronizer);
 			synchronizer.prepare(null, jobMetrics, progressLogger);
@@ -218,10 +261,11 @@ public class JobRunner implements Runnable, Callable<Metrics> {
 		else {
 			DatePartitionedTableReader multiReader = 
 				new DatePartitionedTableReader(table, config, dbWrapper);
+			multiReader.setSessionPool(resources.getSessionPool());
 			synchronizer = multiReader;
 			ProgressLogger progressLogger = createJobProgressLogger(multiReader);	
 			synchronizer.prepare(null, jobMetrics, progressLogger);
-			DatePartitionSet parts = multiReader.getPartitions();
+			Iterable<DatePartition> parts = multiReader.getPartitions();
 			logger.info(Log.INIT, "partition=" + parts.toString());
 		}
 //		assert(synchronizer instanceof TableSynchronizer);
@@ -255,15 +299,110 @@ public class JobRunner implements Runnable, Callable<Metrics> {
 		writer.close(jobMetrics);
 	}
 	
+	/**
+	 * Summarize the source table using the Stats API and upsert the groups into the target table.
+	 * Rows for the same buckets which were not returned are deleted.
+	 * The target table must exist, and the first column must be <code>sys_id</code>.
+	 */
+	private void runAggregate() 
+			throws SQLException, IOException, InterruptedException, JobCancelledException {
+		String sqlTableName = config.getTarget();
+		assert sqlTableName != null;
+		logger.debug(Log.INIT, "runAggregate " + config.toString());
+		TableAggregator aggregator = new TableAggregator(table, config.getGroupBy(), config.getCount(),
+			config.getSum(), config.getAvg(), config.getMin(), config.getMax(), config.getBucket());
+		aggregator.setFilter(config.getFilter(table));
+		aggregator.setCreatedRange(config.getCreatedRange(null));
+		DatabaseUpdateWriter writer = 
+			new DatabaseUpdateWriter(dbWrapper, table, sqlTableName, config.getName());
+		writer.setFieldNames(aggregator.getFieldNames());
+		ProgressLogger progressLogger = createJobProgressLogger(null);
+		writer.open(jobMetrics);
+		Log.setTableContext(table, config.getName());
+		RecordList groups = aggregator.getRecords();
+		jobMetrics.setExpected(groups.size());
+		jobMetrics.addInput(groups.size());
+		progressLogger.logStart();
+		writer.processRecords(groups, jobMetrics, progressLogger);
+		// Delete the groups which were previously written for these buckets but no longer exist
+		Set<RecordKey> current = new HashSet<RecordKey>();
+		for (TableRecord group : groups) current.add(group.getKey());
+		RecordKeySet stale = new RecordKeySet();
+		DatabaseTimestampReader targetReader = new DatabaseTimestampReader(dbWrapper);
+		for (RecordKey key : targetReader.getKeys(sqlTableName, "bucket", aggregator.getBucketRange()))
+			if (!current.contains(key)) stale.add(key);
+		if (!stale.isEmpty()) {
+			logger.info(Log.PROCESS, String.format("deleting %d stale groups", stale.size()));
+			DatabaseDeleteWriter deleteWriter = 
+				new DatabaseDeleteWriter(dbWrapper, table, sqlTableName, config.getName());
+			deleteWriter.setFieldNames(aggregator.getFieldNames());
+			deleteWriter.open(jobMetrics);
+			deleteWriter.deleteRecords(stale, jobMetrics, progressLogger);
+			deleteWriter.close(jobMetrics);
+		}
+		writer.close(jobMetrics);
+		progressLogger.logComplete();
+	}
+	
+	/**
+	 * Return a writer which resolves the display values of the reference fields
+	 * which have a <code>dv_</code> column in the target table.
+	 */
+	private RecordWriter createDisplayValueWriter(DatabaseTableWriter writer, RecordWriter target) 
+			throws IOException, InterruptedException {
+		TableSchema schema = resources.getSchemaReader().getSchema(table.getName());
+		Map<String, String> references = new LinkedHashMap<String, String>();
+		for (String fieldname : writer.getDisplayFieldNames()) {
+			FieldDefinition defn = schema.getFieldDefinition(fieldname);
+			if (defn != null && defn.isReference())
+				references.put(fieldname, defn.getReference());
+			else
+				logger.warn(Log.INIT, String.format(
+					"dv_%s will be null because %s is not a reference", fieldname, fieldname));
+		}
+		logger.info(Log.INIT, "display values=" + references.keySet());
+		return new DisplayValueWriter(target, resources.getReferenceResolver(), references);
+	}
+	
+	/**
+	 * Return a writer which also writes each record to the target table for its class.
+	 * The target tables for the child classes have the same names as the child tables.
+	 * 
+	 * @param projection The fields which are read from the parent table
+	 */
+	private FanOutWriter createFanOutWriter(DatabaseTableWriter writer, FieldNames projection, boolean truncate)
+			throws SQLException, IOException, InterruptedException {
+		Map<String, DatabaseTableWriter> children = new LinkedHashMap<String, DatabaseTableWriter>();
+		for (String child : config.getChildren()) {
+			Table childTable = readerSession.table(child);
+			if (config.getAutoCreate()) dbWrapper.createMissingTable(childTable, child);
+			if (truncate) dbWrapper.truncateTable(child);
+			DatabaseTableWriter childWriter = (writer instanceof DatabaseInsertWriter) ?
+				new DatabaseInsertWriter(dbWrapper, childTable, child, config.getName() + "." + child) :
+				new DatabaseUpdateWriter(dbWrapper, childTable, child, config.getName() + "." + child);
+			children.put(child, childWriter);
+		}
+		return new FanOutWriter(writer, children, projection, config.getName());
+	}
+	
 	private void runLoad() 
 			throws SQLException, IOException, InterruptedException, JobCancelledException {
 		String sqlTableName = config.getTarget();
 		assert sqlTableName != null;
 		Action action = config.getAction();	
 		logger.debug(Log.INIT, "runLoad " + config.toString());
+		CheckpointFile checkpoint = null;
+		if (config.getCheckpoint() != null) 
+			checkpoint = new CheckpointFile(new File(config.getCheckpoint()), config.getCheckpointSignature());
+		// Rows committed before a restart must not be truncated
+		boolean truncate = config.getTruncate();
+		if (truncate && checkpoint != null && checkpoint.isResuming()) {
+			logger.info(Log.INIT, "resuming from checkpoint; truncate bypassed");
+			truncate = false;
+		}
 		if (config.getAutoCreate()) 
 			dbWrapper.createMissingTable(table, sqlTableName, config.getColumns());
-		if (config.getTruncate()) dbWrapper.truncateTable(sqlTableName);
+		if (truncate) dbWrapper.truncateTable(sqlTableName);
 		
 		DatabaseTableWriter writer;
 		if (Action.INSERT.equals(action) || Action.LOAD.equals(action)) {
@@ -272,24 +411,66 @@ public class JobRunner implements Runnable, Callable<Metrics> {
 		else {
 			writer = new DatabaseUpdateWriter(dbWrapper, table, sqlTableName, config.getName());
 		}
+		if (config.getDisplayValues()) writer.setDisplayValues(true);
 		writer.open(jobMetrics);
+		// Unless columns were specified, only read the fields which are stored in the target table
+		FieldNames projection = (config.getColumns() == null) ? writer.getFieldNames() : null;
+		RecordWriter pageWriter = writer;
+		if (config.getChildren() != null) {
+			// The records are routed by sys_class_name, so it must be read even if columns were specified
+			if (projection == null) {
+				projection = new FieldNames();
+				projection.addAll(config.getColumns());
+			}
+			if (!projection.contains("sys_class_name")) projection.add("sys_class_name");
+			pageWriter = createFanOutWriter(writer, projection, truncate);
+		}
+		if (config.getDisplayValues()) 
+			pageWriter = createDisplayValueWriter(writer, pageWriter);
+		if (projection != null) logger.debug(Log.INIT, "fields=" + projection.toString());
 		PartitionInterval partitionInterval = config.getPartitionInterval();
 		DateTime since = config.getSince();	
 		logger.debug(Log.INIT, "since=" + config.sinceExpr + "=" + since);
+		PruningWriter pruner = null;
+		if (config.getPrune()) {
+			pruner = createPruningWriter(pageWriter, since);
+			pageWriter = pruner;
+		}
 		TableReader reader;
 		Log.setTableContext(table, config.getName());					
-		if (partitionInterval == null) {
+		if (config.getKeyPartitions() != null) {
+			KeyRangePartitionedTableReader multiReader = 
+				new KeyRangePartitionedTableReader(table, config, dbWrapper);
+			multiReader.setCheckpoint(checkpoint);
+			multiReader.setSessionPool(resources.getSessionPool());
+			multiReader.setFields(projection);
+			reader = multiReader;
+			ProgressLogger progressLogger = createJobProgressLogger(multiReader);
+			reader.prepare(pageWriter, jobMetrics, progressLogger);
+			logger.info(Log.INIT, "partition=" + multiReader.getPartitions().toString());
+		}
+		else if (partitionInterval == null && !config.getAutoPartition()) {
 			reader = config.createReader(table, dbWrapper);
+			if (projection != null) reader.setFields(projection);
+			if (checkpoint != null && !checkpoint.attach(reader, jobMetrics)) {
+				// Completed in a previous run but the checkpoint was not deleted
+				pageWriter.close(jobMetrics);
+				checkpoint.delete();
+				return;
+			}
 			ProgressLogger progressLogger = createJobProgressLogger(reader);
 			if (since != null) logger.info(Log.INIT, "getKeys " + reader.getQuery().toString());
-			reader.prepare(writer, jobMetrics, progressLogger);
+			reader.prepare(pageWriter, jobMetrics, progressLogger);
 		}
 		else {
 			DatePartitionedTableReader multiReader = new DatePartitionedTableReader(table, config, dbWrapper);
+			multiReader.setCheckpoint(checkpoint);
+			multiReader.setSessionPool(resources.getSessionPool());
+			multiReader.setFields(projection);
 			reader = multiReader;
 			ProgressLogger progressLogger = createJobProgressLogger(multiReader);
-			reader.prepare(writer, jobMetrics, progressLogger);
-			DatePartitionSet parts = multiReader.getPartitions();
+			reader.prepare(pageWriter, jobMetrics, progressLogger);
+			Iterable<DatePartition> parts = multiReader.getPartitions();
 			logger.info(Log.INIT, "partition=" + parts.toString());
 		}
 		assert reader.getMetrics() != null;
@@ -301,8 +482,11 @@ public class JobRunner implements Runnable, Callable<Metrics> {
 		} catch (JobCancelledException e) {
 			cancel = e;
 		}
-		writer.close(jobMetrics);
+		if (pruner != null && cancel == null) 
+			pruner.applyDeletes(jobMetrics, createJobProgressLogger(reader));
+		pageWriter.close(jobMetrics);
 		if (cancel != null) throw(cancel);
+		if (checkpoint != null) checkpoint.delete();
 	}
 
 
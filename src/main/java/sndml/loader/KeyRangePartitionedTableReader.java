@@ -0,0 +1,200 @@
+package sndml.loader;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import sndml.agent.JobCancelledException;
+import sndml.servicenow.*;
+import sndml.util.KeyPartition;
+import sndml.util.KeyPartitionSet;
+import sndml.util.Log;
+import sndml.util.Metrics;
+import sndml.util.ProgressLogger;
+
+/**
+ * Reads a table by dividing the <code>sys_id</code> keyspace into contiguous ranges
+ * and running a separate {@link RestTableReader} for each range.
+ * <p>
+ * Unlike {@link DatePartitionedTableReader}, the partitions do not depend on
+ * <code>sys_created_on</code>, so the work is evenly distributed even if most rows
+ * were created at the same time (<i>e.g.</i> by a bulk import).
+ */
+public final class KeyRangePartitionedTableReader extends TableReader {
+
+	final JobConfig config;
+	final DatabaseWrapper db;
+	final int threads;
+	final KeyPartitionSet parts;
+
+	private final Map<TableReader, Session> leases = 
+		Collections.synchronizedMap(new IdentityHashMap<TableReader, Session>());
+
+	private CheckpointFile checkpoint = null;
+	private SessionPool sessionPool = null;
+	private Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	public KeyRangePartitionedTableReader(Table table, JobConfig config, DatabaseWrapper db) {
+		super(table);
+		this.config = config;
+		this.db = db;
+		assert config != null;
+		setCreatedRange(config.getCreatedRange(null));
+		setUpdatedRange(config.getUpdatedRange());
+		setFilter(config.getFilter(table));
+		this.parts = config.getKeyPartitions();
+		assert parts != null;
+		this.threads = (config.getThreads()==null) ? 1 : config.getThreads();
+	}
+
+	/**
+	 * Partitions which completed in a previous run will be skipped,
+	 * and partitions which were partially completed will be resumed.
+	 */
+	public void setCheckpoint(CheckpointFile checkpoint) {
+		if (initialized) throw new IllegalStateException();
+		this.checkpoint = checkpoint;
+	}
+
+	/**
+	 * Partition threads will use sessions from this pool.
+	 * If a pool is not specified then one is created for the duration of the job.
+	 */
+	public void setSessionPool(SessionPool pool) {
+		this.sessionPool = pool;
+	}
+
+	public KeyPartitionSet getPartitions() {
+		return parts;
+	}
+
+	@Override
+	public Metrics getMetrics() {
+		return this.metrics;
+	}
+
+	@Override
+	public void prepare(RecordWriter writer, Metrics metrics, ProgressLogger progress)
+			throws IOException, InterruptedException {
+		super.beginPrepare(writer, metrics, progress);
+		EncodedQuery query = this.getStatsQuery();
+		logger.debug(Log.INIT, String.format("initialize query=\"%s\"", query));
+		TableStats stats = table.rest().getStats(query, false);
+		Integer expected = stats.getCount();
+		logger.debug(Log.INIT, String.format(
+			"partition=%s expected=%d", parts, expected));
+		super.endPrepare(expected);
+	}
+
+	private TableReader createReader(KeyPartition keyPart, Session mySession)
+			throws IOException, SQLException, InterruptedException, JobCancelledException {
+		Table myTable = (mySession == table.getSession()) ? table : mySession.table(table.getName());
+		TableReader partReader = config.createReader(myTable, db, mySession, keyPart);
+		if (fieldNames != null) partReader.setFields(fieldNames);
+		if (checkpoint != null && !checkpoint.attach(partReader, this.metrics)) return null;
+		String partReaderName = config.getName() + "." + keyPart.getName();
+		Metrics partMetrics = new Metrics(partReaderName, this.metrics);
+		ProgressLogger partLogger = progress.newPartLogger(partMetrics, keyPart);
+		partReader.prepare(writer, partMetrics, partLogger);
+		return partReader;
+	}
+
+	/**
+	 * Create a reader which uses a session from the pool.
+	 * The session is returned to the pool by {@link #releaseSession(TableReader)}.
+	 */
+	private TableReader createPooledReader(KeyPartition keyPart)
+			throws IOException, SQLException, InterruptedException, JobCancelledException {
+		Session mySession = sessionPool.acquire();
+		TableReader partReader = null;
+		try {
+			partReader = createReader(keyPart, mySession);
+		}
+		finally {
+			if (partReader == null) sessionPool.release(mySession);
+		}
+		if (partReader != null) leases.put(partReader, mySession);
+		return partReader;
+	}
+
+	private void releaseSession(TableReader partReader) {
+		Session mySession = leases.remove(partReader);
+		if (mySession != null) sessionPool.release(mySession, partReader.getMetrics());
+	}
+
+	/**
+	 * Create a reader for part of the keys of a running partition.
+	 * Used by {@link PartitionScheduler} when a thread is idle.
+	 * Returns null if there is no free session in the pool.
+	 */
+	private TableReader createSplitReader(TableReader parent, KeyPartition remainder)
+			throws IOException, SQLException, InterruptedException, JobCancelledException {
+		// The parent holds a session, so waiting for another could deadlock
+		Session mySession = sessionPool.tryAcquire();
+		if (mySession == null) return null;
+		TableReader partReader = null;
+		boolean prepared = false;
+		try {
+			Table myTable = mySession.table(table.getName());
+			partReader = config.createReader(myTable, db, mySession, remainder);
+			if (fieldNames != null) partReader.setFields(fieldNames);
+			String partReaderName = parent.getReaderName() + "." + remainder.getName();
+			partReader.setReaderName(partReaderName);
+			Metrics partMetrics = new Metrics(partReaderName, this.metrics);
+			ProgressLogger partLogger = progress.newPartLogger(partMetrics, remainder);
+			partReader.prepare(writer, partMetrics, partLogger);
+			prepared = true;
+		}
+		finally {
+			if (!prepared) sessionPool.release(mySession);
+		}
+		leases.put(partReader, mySession);
+		return partReader;
+	}
+
+	@Override
+	public Metrics call() throws IOException, SQLException, InterruptedException, JobCancelledException {
+		progress.logStart();
+		if (getExpected() == 0) {
+			logger.debug(Log.PROCESS, "expecting 0 rows; bypassing call");
+			progress.logComplete();
+			return metrics;
+		}
+		if (threads > 1) {
+			boolean ownPool = (sessionPool == null);
+			if (ownPool) sessionPool = new SessionPool(table.getSession(), threads);
+			sessionPool.checkCapacity(threads);
+			PartitionScheduler scheduler = 
+				new PartitionScheduler(config.getName(), threads, this::createSplitReader);
+			scheduler.setCompletion(this::releaseSession);
+			for (KeyPartition keyPart : parts) {
+				scheduler.add(() -> createPooledReader(keyPart));
+			}
+			try {
+				scheduler.run();
+				if (!metrics.getNodeInput().isEmpty())
+					logger.info(Log.FINISH, "rows by node=" + metrics.getNodeInput());
+			}
+			finally {
+				if (ownPool) {
+					sessionPool.close();
+					sessionPool = null;
+				}
+			}
+		}
+		else {
+			for (KeyPartition keyPart : parts) {
+				TableReader partReader = createReader(keyPart, table.getSession());
+				if (partReader != null) partReader.call();
+			}
+		}
+		progress.logComplete();
+		return metrics;
+	}
+
+}
@@ -17,6 +17,7 @@ import sndml.servicenow.EncodedQuery;
 import sndml.servicenow.RecordKey;
 import sndml.servicenow.Table;
 import sndml.util.Log;
+import sndml.util.PropertySet;
 import sndml.util.ResourceException;
 
 /**
@@ -33,6 +34,7 @@ public class Main {
 	static protected long pid;
 
 	static Options options = new Options();
+	static final long FOLLOW_SHUTDOWN_MILLISEC = 30000;
 	
 	static final protected Option optProfile = 
 			Option.builder("p").longOpt("profile").required(true).hasArg(true).
@@ -49,6 +51,9 @@ public class Main {
 	static final protected Option optYaml = 
 			Option.builder("y").longOpt("yaml").required(false).hasArg(true).
 			desc("YAML config file (required)").build();
+	static final protected Option optFollow =
+			Option.builder("follow").longOpt("follow").required(false).hasArg(false).
+			desc("Copy changes continuously for use with --yaml").build();
 	static final protected Option optJobRun = 
 			Option.builder("jobrun").longOpt("jobrun").required(false).hasArg(true).
 			desc("sys_id of job").build();
@@ -70,7 +75,7 @@ public class Main {
 	public static void main(String[] args) throws Exception {
 		
 		final Option allOptions[] = {
-			optProfile, optTable, optFilter, optSysID, optYaml, 
+			optProfile, optTable, optFilter, optSysID, optYaml, optFollow,
 			optJobRun, optScan, optDaemon, optServer};		
 
 		for (Option opt : allOptions) {
@@ -129,9 +134,26 @@ public class Main {
 			String yamlText = Files.readString(yamlFile.toPath());
 			logger.info(Log.INIT, yamlFileName + ":\n" + yamlText.trim());
 			YamlLoader loader = new YamlLoader(resources, yamlFile);
-			loader.loadTables();
+			if (cmd.hasOption(optFollow)) {
+				PropertySet props = profile.loaderProperties();
+				Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+					// Allow the current poll to commit before the process exits
+					Main.interrupt();
+					try {
+						mainThread.join(FOLLOW_SHUTDOWN_MILLISEC);
+					} catch (InterruptedException e) { }
+				}));
+				loader.followTables(
+					props.getInt("follow_interval_seconds"), props.getInt("follow_overlap_seconds"));
+			}
+			else
+				loader.loadTables();
 			shutdown();
 		}
+		else {
+			if (cmd.hasOption(optFollow))
+				throw new CommandOptionsException("--follow only valid when used with --yaml");
+		}
 		if (requiresApp) {
 			// Run as --scan or --daemon or --server
 			AgentMain.main(cmd, resources);
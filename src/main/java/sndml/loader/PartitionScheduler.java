@@ -0,0 +1,234 @@
+package sndml.loader;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import sndml.agent.JobCancelledException;
+import sndml.servicenow.KeySplitter;
+import sndml.servicenow.RestTableReader;
+import sndml.servicenow.ServiceNowError;
+import sndml.servicenow.TableReader;
+import sndml.util.KeyPartition;
+import sndml.util.Log;
+
+/**
+ * <p>Runs the partition readers of a partitioned job using a fixed number of threads.</p>
+ *
+ * <p>When a thread becomes idle because there are no more partitions waiting to start,
+ * a running {@link RestTableReader} with more than {@link #MIN_SPLIT_ROWS} rows remaining
+ * will split its remaining <code>sys_id</code> range at the end of its current page.
+ * The upper half of the range is read by a new reader on the idle thread.
+ * In this way, a partition which is much larger than expected does not leave
+ * the other threads idle while it completes.</p>
+ *
+ * <p>A reader may also be added as a {@link PartFactory}, in which case it is
+ * created and prepared by the thread which runs it. This allows resources such
+ * as a {@link sndml.servicenow.SessionPool} session to be held only while the reader is running.</p>
+ */
+public class PartitionScheduler implements KeySplitter {
+
+	/**
+	 * A reader will not be split unless it has at least this many rows remaining.
+	 */
+	public static final int MIN_SPLIT_ROWS = 10000;
+
+	/**
+	 * Creates and prepares a reader for part of the keys of a running reader.
+	 * Returns null if the reader cannot be created now, in which case there is no split.
+	 */
+	public interface SplitFactory {
+		TableReader createSplit(TableReader parent, KeyPartition remainder)
+			throws IOException, SQLException, InterruptedException, JobCancelledException;
+	}
+
+	/**
+	 * Creates and prepares a reader when a thread is available to run it.
+	 * Returns null if there is nothing to read.
+	 */
+	public interface PartFactory {
+		TableReader create()
+			throws IOException, SQLException, InterruptedException, JobCancelledException;
+	}
+
+	final String name;
+	final int threads;
+	final SplitFactory factory;
+	private final Deque<PartFactory> pending = new ArrayDeque<PartFactory>();
+	private Consumer<TableReader> completion = null;
+	private int running = 0;
+	private int idle = 0;
+	private int total = 0;
+	private int splits = 0;
+	private Exception failure = null;
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	/**
+	 * @param name Job name, used for logging
+	 * @param threads Number of threads
+	 * @param factory Used to create readers for split ranges; if null then readers are not split
+	 */
+	public PartitionScheduler(String name, int threads, SplitFactory factory) {
+		this.name = name;
+		this.threads = threads;
+		this.factory = factory;
+	}
+
+	/**
+	 * Add a prepared reader. Readers are started in the order in which they were added.
+	 */
+	public synchronized void add(TableReader reader) {
+		add(() -> reader);
+	}
+
+	/**
+	 * Add a reader which will be created by the thread which runs it.
+	 */
+	public synchronized void add(PartFactory part) {
+		pending.addLast(part);
+		total += 1;
+		notifyAll();
+	}
+
+	/**
+	 * Set a function which is called when each reader is finished, whether or not it succeeded.
+	 */
+	public void setCompletion(Consumer<TableReader> completion) {
+		this.completion = completion;
+	}
+
+	public synchronized int getSplitCount() {
+		return splits;
+	}
+
+	private synchronized PartFactory next() throws InterruptedException {
+		while (true) {
+			if (failure != null) return null;
+			if (!pending.isEmpty()) {
+				running += 1;
+				return pending.removeFirst();
+			}
+			if (running == 0) {
+				notifyAll();
+				return null;
+			}
+			idle += 1;
+			try {
+				wait();
+			}
+			finally {
+				idle -= 1;
+			}
+		}
+	}
+
+	private synchronized void done(Exception e) {
+		running -= 1;
+		if (e != null && failure == null) failure = e;
+		notifyAll();
+	}
+
+	@Override
+	public synchronized boolean wantSplit(TableReader reader, int remainingRows) {
+		if (failure != null) return false;
+		return idle > pending.size() && remainingRows > MIN_SPLIT_ROWS;
+	}
+
+	@Override
+	public int split(TableReader reader, KeyPartition remainder)
+			throws IOException, SQLException, InterruptedException, JobCancelledException {
+		TableReader splitReader = factory.createSplit(reader, remainder);
+		if (splitReader == null) return -1;
+		synchronized (this) {
+			splits += 1;
+			// Split readers are started before any other waiting readers
+			pending.addFirst(() -> splitReader);
+			total += 1;
+			notifyAll();
+		}
+		Integer expected = splitReader.getExpected();
+		return expected == null ? 0 : expected;
+	}
+
+	private synchronized int numIncomplete() {
+		return pending.size() + running;
+	}
+
+	private synchronized int numTotal() {
+		return total;
+	}
+
+	private void work() {
+		Log.setJobContext(name);
+		try {
+			PartFactory part;
+			while ((part = next()) != null) {
+				TableReader reader = null;
+				Exception error = null;
+				try {
+					reader = part.create();
+					if (reader != null) {
+						if (factory != null && reader instanceof RestTableReader)
+							((RestTableReader) reader).setSplitter(this);
+						reader.call();
+					}
+				}
+				catch (Throwable e) {
+					// An Error (such as an AssertionError or OutOfMemoryError) must also fail the job,
+					// otherwise the partition would be lost without any indication
+					String readerName = reader == null ? name : reader.getReaderName();
+					logger.error(Log.PROCESS, readerName + ": " + e.toString(), e);
+					error = (e instanceof Exception) ? (Exception) e : new ServiceNowError(e);
+				}
+				finally {
+					if (reader != null && completion != null) completion.accept(reader);
+					done(error);
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Run all of the readers, and wait for them to complete.
+	 * If any reader throws an exception, then no more readers will be started,
+	 * and the first exception is rethrown after the running readers complete.
+	 */
+	public void run() throws IOException, SQLException, InterruptedException, JobCancelledException {
+		logger.info(Log.INIT, String.format("starting %d threads", threads));
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		for (int i = 0; i < threads; ++i) {
+			executor.submit(() -> work());
+		}
+		executor.shutdown();
+		while (!executor.awaitTermination(60, TimeUnit.SECONDS)) {
+			logger.info(Log.FINISH, String.format("Waiting for %d / %d partitions to complete",
+				numIncomplete(), numTotal()));
+		}
+		int splitCount = getSplitCount();
+		if (splitCount > 0) logger.info(Log.FINISH, String.format("%d partitions were split", splitCount));
+		Exception cause;
+		synchronized (this) {
+			cause = failure;
+		}
+		if (cause == null) return;
+		if (cause instanceof IOException) throw (IOException) cause;
+		if (cause instanceof SQLException) throw (SQLException) cause;
+		if (cause instanceof JobCancelledException) throw (JobCancelledException) cause;
+		if (cause instanceof InterruptedException) throw (InterruptedException) cause;
+		if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+		throw new IllegalStateException(cause);
+	}
+
+}
@@ -0,0 +1,98 @@
+package sndml.loader;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.slf4j.Logger;
+
+import sndml.agent.JobCancelledException;
+import sndml.servicenow.RecordKey;
+import sndml.servicenow.RecordKeySet;
+import sndml.servicenow.RecordList;
+import sndml.servicenow.RecordWriter;
+import sndml.servicenow.TableRecord;
+import sndml.util.Log;
+import sndml.util.Metrics;
+import sndml.util.ProgressLogger;
+
+/**
+ * <p>{@link RecordWriter} for an incremental load which also applies the deletes
+ * recorded in <code>sys_audit_delete</code> since the same watermark.
+ * In this way a single job with a single <b>since</b> date replaces an UPDATE job
+ * followed by a PRUNE job.</p>
+ *
+ * <p>The deleted keys are read before the updated records.
+ * Each page of updated records is passed to the target writer.
+ * If an updated record has a key which was deleted, then the record was
+ * restored after it was deleted, so the delete is discarded.
+ * When all of the updated records have been written, {@link #applyDeletes}
+ * deletes the remaining keys. The result is the same as applying the inserts,
+ * updates and deletes in the order in which they were committed in the instance.
+ * Because only the records written by this run cancel a delete, 
+ * <b>prune</b> is not valid with <b>checkpoint</b>.</p>
+ */
+public class PruningWriter extends RecordWriter {
+
+	final RecordWriter writer;
+	final DatabaseDeleteWriter deleteWriter;
+	private final Set<RecordKey> pending;
+	private int restored = 0;
+
+	final private Logger logger = Log.getLogger(this.getClass());
+
+	/**
+	 * @param writer The target writer for the updated records
+	 * @param deleteWriter Open writer for the target table which will be used to delete the records
+	 * @param deletedKeys Keys from <code>sys_audit_delete</code>
+	 */
+	public PruningWriter(RecordWriter writer, DatabaseDeleteWriter deleteWriter, RecordKeySet deletedKeys) {
+		this.writer = writer;
+		this.deleteWriter = deleteWriter;
+		this.pending = new LinkedHashSet<RecordKey>(deletedKeys);
+	}
+
+	@Override
+	public void processRecords(RecordList recs, Metrics metrics, ProgressLogger progressLogger)
+			throws JobCancelledException, IOException, SQLException {
+		writer.processRecords(recs, metrics, progressLogger);
+		synchronized (pending) {
+			if (pending.isEmpty()) return;
+			for (TableRecord rec : recs) {
+				RecordKey key = rec.getKey();
+				if (pending.remove(key)) {
+					logger.info(Log.PROCESS, "Restored " + key);
+					restored += 1;
+				}
+			}
+		}
+	}
+
+	@Override
+	public RecordWriter open(Metrics metrics) throws IOException, SQLException {
+		writer.open(metrics);
+		return this;
+	}
+
+	/**
+	 * Delete the keys which were not restored.
+	 * This method must be called after all of the updated records have been written.
+	 */
+	public void applyDeletes(Metrics metrics, ProgressLogger progressLogger) throws SQLException {
+		RecordKeySet keys;
+		synchronized (pending) {
+			keys = new RecordKeySet(pending);
+			pending.clear();
+		}
+		logger.info(Log.PROCESS, String.format("deleting %d keys (%d restored)", keys.size(), restored));
+		deleteWriter.deleteRecords(keys, metrics, progressLogger);
+	}
+
+	@Override
+	public void close(Metrics metrics) {
+		deleteWriter.close(metrics);
+		writer.close(metrics);
+	}
+
+}
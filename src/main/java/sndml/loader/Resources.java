@@ -9,7 +9,9 @@ import org.slf4j.LoggerFactory;
 import sndml.agent.AppSchemaReader;
 import sndml.agent.AppSession;
 import sndml.agent.WorkerPool;
+import sndml.servicenow.ReferenceResolver;
 import sndml.servicenow.SchemaReader;
+import sndml.servicenow.SessionPool;
 import sndml.servicenow.TableSchemaReader;
 import sndml.util.Log;
 import sndml.util.PropertySet;
@@ -22,6 +24,8 @@ public class Resources {
 	private boolean hasAppSession;
 	private String agentName; // null if no agent
 	private ReaderSession readerSession;
+	private SessionPool sessionPool;
+	private ReferenceResolver referenceResolver;
 	private AppSession appSession;
 	private SchemaReader schemaReader;
 	private Generator generator;	
@@ -50,6 +54,8 @@ public class Resources {
 		this.agentName = profile.getAgentName();
 		this.hasAppSession = profile.hasAgent();
 		this.readerSession = null;
+		this.sessionPool = null;
+		this.referenceResolver = null;
 		this.appSession = null;
 		this.schemaReader = null;
 		this.generator = null;
@@ -82,6 +88,31 @@ public class Resources {
 		return this.readerSession;
 	}
 	
+	/**
+	 * Return a pool of sessions which are duplicates of the reader session.
+	 * Used by the threads of partitioned jobs.
+	 */
+	public SessionPool getSessionPool() throws ResourceException {
+		if (this.sessionPool == null) {
+			PropertySet props = profile.readerProperties();
+			this.sessionPool = new SessionPool(getReaderSession(), props.getInt("session_pool_size"));
+			this.sessionPool.setSpreadNodes(props.getBoolean("spread_nodes"));
+		}
+		return this.sessionPool;
+	}
+	
+	/**
+	 * Return a {@link ReferenceResolver} whose cache is shared by all jobs 
+	 * which use these resources.
+	 */
+	public ReferenceResolver getReferenceResolver() {
+		if (this.referenceResolver == null) {
+			int size = profile.readerProperties().getInt("reference_cache_size");
+			this.referenceResolver = new ReferenceResolver(size);
+		}
+		return this.referenceResolver;
+	}
+	
 	public AppSession getAppSession() throws ResourceException {
 		logger.debug(Log.INIT, "getAppSession");
 		if (this.appSession == null) {
@@ -161,6 +192,9 @@ public class Resources {
 		if (workerPool != null) {
 			workerPool.shutdown();
 		}
+		if (sessionPool != null) {
+			sessionPool.close();
+		}
 		if (sqlConnection != null) {
 			try {
 				sqlConnection.rollback();
@@ -171,6 +205,8 @@ public class Resources {
 			}
 		}
 		readerSession = null;
+		sessionPool = null;
+		referenceResolver = null;
 		appSession = null;
 		schemaReader = null;
 		generator = null;
@@ -203,10 +239,13 @@ public class Resources {
 		} catch (SQLException e) {
 			throw new ResourceException(e);
 		}
+		if (sessionPool != null) 
+			sessionPool.close();
 		sqlConnection = null;
 		dbWrapper = null;
 		appSession = null;
 		readerSession = null;
+		sessionPool = null;
 	}
 
 }
@@ -0,0 +1,303 @@
+package sndml.loader;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import sndml.servicenow.EncodedQuery;
+import sndml.servicenow.RecordList;
+import sndml.servicenow.Table;
+import sndml.servicenow.TableRecord;
+import sndml.servicenow.TableStats;
+import sndml.util.DatePartition;
+import sndml.util.DatePartitionSet;
+import sndml.util.DateTime;
+import sndml.util.DateTimeRange;
+import sndml.util.FieldNames;
+import sndml.util.Log;
+import sndml.util.Parameters;
+import sndml.util.PartitionInterval;
+
+/**
+ * <p>Summarizes a table using the ServiceNow Stats API
+ * for Action AGGREGATE.</p>
+ *
+ * <p>If there is a bucket, then the created range of the table is divided into
+ * a {@link DatePartitionSet}, and the table is aggregated separately for each partition.
+ * If a created range is specified, it is widened to whole buckets
+ * (see {@link #getBucketRange()}), so that each row always summarizes an entire bucket.
+ * The Stats API calls for all of the partitions are sent as a {@link sndml.servicenow.BatchRequest},
+ * so that the aggregates for a large table are computed by the instance
+ * without reading any records.</p>
+ *
+ * <p>Each group is returned as a record with the following fields:</p>
+ * <ul>
+ * <li><code>sys_id</code> - a hash of the bucket and the group by values,
+ * so that repeating the job updates the same rows</li>
+ * <li><code>bucket</code> - the start of the partition</li>
+ * <li>the group by fields</li>
+ * <li><code>count</code></li>
+ * <li><code>sum_</code>, <code>avg_</code>, <code>min_</code> or <code>max_</code>
+ * followed by the name of the field</li>
+ * </ul>
+ *
+ * <p>The groups replace the rows in the target table for the same buckets
+ * (see {@link #getBucketRange()}). A row in that range which is not returned by
+ * {@link #getRecords()} is a group which no longer exists, and should be deleted.</p>
+ */
+public class TableAggregator {
+
+	static final String[] FUNCTIONS = {"sum", "avg", "min", "max"};
+
+	final Table table;
+	final FieldNames groupBy;
+	final boolean count;
+	final Map<String, FieldNames> functions = new LinkedHashMap<String, FieldNames>();
+	final PartitionInterval bucket;
+	private EncodedQuery filter = null;
+	private DateTimeRange createdRange = null;
+
+	final private Logger logger = Log.getLogger(this.getClass());
+
+	/**
+	 * @param table Table to be summarized
+	 * @param groupBy Fields to group by, or null
+	 * @param count If true then the number of records is included
+	 * @param sum Fields to be summed, or null
+	 * @param avg Fields to be averaged, or null
+	 * @param min Fields for which the minimum is returned, or null
+	 * @param max Fields for which the maximum is returned, or null
+	 * @param bucket Partition interval, or null to summarize the entire table
+	 */
+	public TableAggregator(Table table, FieldNames groupBy, boolean count,
+			FieldNames sum, FieldNames avg, FieldNames min, FieldNames max,
+			PartitionInterval bucket) {
+		this.table = table;
+		this.groupBy = groupBy == null ? new FieldNames() : groupBy;
+		this.count = count;
+		FieldNames[] lists = {sum, avg, min, max};
+		for (int i = 0; i < FUNCTIONS.length; ++i)
+			functions.put(FUNCTIONS[i], lists[i] == null ? new FieldNames() : lists[i]);
+		this.bucket = bucket;
+	}
+
+	public void setFilter(EncodedQuery filter) {
+		this.filter = filter;
+	}
+
+	public void setCreatedRange(DateTimeRange range) {
+		this.createdRange = range;
+	}
+
+	/**
+	 * Return the names of the fields in the aggregate records.
+	 */
+	public FieldNames getFieldNames() {
+		FieldNames result = new FieldNames();
+		result.add("sys_id");
+		if (bucket != null) result.add("bucket");
+		result.addAll(groupBy);
+		if (count) result.add("count");
+		for (Map.Entry<String, FieldNames> function : functions.entrySet()) {
+			for (String fieldname : function.getValue())
+				result.add(function.getKey() + "_" + fieldname);
+		}
+		return result;
+	}
+
+	Parameters getParameters() {
+		Parameters params = new Parameters();
+		if (count) params.add("sysparm_count", "true");
+		if (!groupBy.isEmpty()) params.add("sysparm_group_by", groupBy.toString());
+		for (Map.Entry<String, FieldNames> function : functions.entrySet()) {
+			if (!function.getValue().isEmpty())
+				params.add("sysparm_" + function.getKey() + "_fields", function.getValue().toString());
+		}
+		return params;
+	}
+
+	private EncodedQuery getQuery(DateTimeRange range) {
+		EncodedQuery query = new EncodedQuery(table);
+		if (filter != null) query.addQuery(filter);
+		if (range != null) query.addCreated(range);
+		return query;
+	}
+
+	/**
+	 * Return the range of buckets which are aggregated,
+	 * or null if the groups replace all of the rows in the target table.
+	 * If the created range starts within a bucket, the range starts with that bucket.
+	 * If it ends within a bucket, the range ends with the end of that bucket.
+	 */
+	public DateTimeRange getBucketRange() {
+		if (bucket == null || createdRange == null) return null;
+		DateTime start = createdRange.hasStart() ? createdRange.getStart().truncate(bucket) : null;
+		DateTime end = createdRange.getEnd();
+		if (end != null) {
+			DateTime truncated = end.truncate(bucket);
+			if (truncated.compareTo(end) < 0) end = truncated.incrementBy(bucket);
+		}
+		return new DateTimeRange(start, end);
+	}
+
+	/**
+	 * Return the range of created dates which are aggregated.
+	 */
+	private DateTimeRange getAggregateRange() {
+		return bucket == null ? createdRange : getBucketRange();
+	}
+
+	/**
+	 * Return the partitions to be aggregated,
+	 * or null if there is no bucket or the table has no records.
+	 */
+	List<DatePartition> getBuckets() throws IOException {
+		if (bucket == null) return null;
+		TableStats stats = table.rest().getStats(getQuery(getAggregateRange()), true);
+		List<DatePartition> result = new ArrayList<DatePartition>();
+		if (stats.getCount() == 0) return result;
+		DateTimeRange range = stats.getCreated();
+		for (DatePartition part : new DatePartitionSet(range, bucket)) result.add(part);
+		logger.info(Log.INIT, String.format("range=%s bucket=%s partitions=%d",
+			range, bucket, result.size()));
+		return result;
+	}
+
+	/**
+	 * Obtain the aggregates from the instance.
+	 */
+	public RecordList getRecords() throws IOException {
+		List<DatePartition> buckets = getBuckets();
+		List<EncodedQuery> queries = new ArrayList<EncodedQuery>();
+		if (buckets == null)
+			queries.add(getQuery(createdRange));
+		else {
+			// The whole bucket is aggregated, since the row for the bucket is replaced
+			for (DatePartition part : buckets)
+				queries.add(getQuery(part));
+		}
+		List<ArrayNode> responses = queries.isEmpty() ?
+			new ArrayList<ArrayNode>() : table.rest().getAggregates(queries, getParameters());
+		RecordList result = new RecordList(table);
+		for (int i = 0; i < responses.size(); ++i) {
+			DatePartition part = buckets == null ? null : buckets.get(i);
+			for (JsonNode group : responses.get(i)) {
+				AggregateRecord rec = new AggregateRecord(table, part, group);
+				// Stats returns a group with no values if the partition is empty
+				if (!rec.isEmpty()) result.add(rec);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * One group of the Stats API result.
+	 */
+	class AggregateRecord extends TableRecord {
+
+		final Map<String, String> values = new LinkedHashMap<String, String>();
+		final boolean empty;
+
+		AggregateRecord(Table table, DatePartition part, JsonNode group) {
+			super(table);
+			values.put("sys_id", null);
+			if (part != null) values.put("bucket", part.getStart().toFullString());
+			for (String fieldname : groupBy) values.put(fieldname, null);
+			for (JsonNode field : group.path("groupby_fields")) {
+				String value = field.path("value").asText();
+				values.put(field.path("field").asText(), value.length() == 0 ? null : value);
+			}
+			JsonNode stats = group.path("stats");
+			if (count) values.put("count", text(stats.path("count")));
+			for (Map.Entry<String, FieldNames> function : functions.entrySet()) {
+				for (String fieldname : function.getValue())
+					values.put(function.getKey() + "_" + fieldname,
+						text(stats.path(function.getKey()).path(fieldname)));
+			}
+			values.put("sys_id", hash(part));
+			boolean hasStats = count && !"0".equals(values.get("count"));
+			for (Map.Entry<String, FieldNames> function : functions.entrySet()) {
+				for (String fieldname : function.getValue())
+					if (values.get(function.getKey() + "_" + fieldname) != null) hasStats = true;
+			}
+			empty = group.path("groupby_fields").size() == 0 && !hasStats;
+		}
+
+		/**
+		 * Return true if the group has no group by fields and no statistics.
+		 * Such a group is returned for a partition with no records,
+		 * and would otherwise be written as a row of nulls.
+		 */
+		boolean isEmpty() {
+			return empty;
+		}
+
+		private String text(JsonNode node) {
+			if (node.isMissingNode() || node.isNull()) return null;
+			String value = node.asText();
+			return value.length() == 0 ? null : value;
+		}
+
+		/**
+		 * Return a 32 character key which is derived from the bucket and the group by values.
+		 */
+		private String hash(DatePartition part) {
+			StringBuilder key = new StringBuilder(table.getName());
+			key.append("|").append(part == null ? "" : part.getName());
+			for (String fieldname : groupBy)
+				key.append("|").append(String.valueOf(values.get(fieldname)));
+			try {
+				MessageDigest md5 = MessageDigest.getInstance("MD5");
+				byte[] digest = md5.digest(key.toString().getBytes(StandardCharsets.UTF_8));
+				StringBuilder result = new StringBuilder(32);
+				for (byte b : digest) result.append(String.format("%02x", b));
+				return result.toString();
+			} catch (NoSuchAlgorithmException e) {
+				throw new AssertionError(e);
+			}
+		}
+
+		@Override
+		public String getValue(String fieldname) {
+			return values.get(fieldname);
+		}
+
+		@Override
+		public String getDisplayValue(String fieldname) {
+			return null;
+		}
+
+		@Override
+		public Iterator<String> keys() {
+			return values.keySet().iterator();
+		}
+
+		@Override
+		public FieldNames getFieldNames() {
+			return new FieldNames(values.keySet());
+		}
+
+		@Override
+		public String asText(boolean pretty) {
+			ObjectNode obj = new ObjectMapper().createObjectNode();
+			for (Map.Entry<String, String> entry : values.entrySet())
+				obj.put(entry.getKey(), entry.getValue());
+			return pretty ? obj.toPrettyString() : obj.toString();
+		}
+
+	}
+
+}
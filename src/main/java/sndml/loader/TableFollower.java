@@ -0,0 +1,144 @@
+package sndml.loader;
+
+import java.io.IOException;
+import java.sql.SQLException;
+
+import org.slf4j.Logger;
+
+import sndml.agent.JobCancelledException;
+import sndml.servicenow.EncodedQuery;
+import sndml.servicenow.RecordKey;
+import sndml.servicenow.RecordList;
+import sndml.servicenow.Table;
+import sndml.util.DateTime;
+import sndml.util.FieldNames;
+import sndml.util.Log;
+import sndml.util.Metrics;
+import sndml.util.Parameters;
+import sndml.util.ProgressLogger;
+
+/**
+ * <p>Copies the changes to a single table for <code>--follow</code>.
+ * The table, the writer (with its {@link ColumnDefinitions} and prepared statements)
+ * and the field list are set up once, and then {@link #poll()} is called repeatedly.</p>
+ *
+ * <p>Each poll reads the records with a <code>sys_updated_on</code> on or after
+ * the watermark, in <code>sys_id</code> order, and upserts them.
+ * No Stats API call is made.
+ * After the records have been committed, the watermark advances to the time
+ * at which the poll started, according to the instance clock, less the overlap.
+ * The overlap allows for transactions which were still running when the poll
+ * started, and which commit records with an earlier <code>sys_updated_on</code>.
+ * Records within the overlap are read and written again by the next poll.
+ * This is harmless because the writes are upserts, and it ensures that
+ * a second update within the same second is not missed.</p>
+ */
+public class TableFollower {
+
+	final JobConfig config;
+	final Table table;
+	final String sqlTableName;
+	final DatabaseWrapper db;
+	final int overlapSeconds;
+	final Metrics metrics;
+	private DatabaseUpdateWriter writer;
+	private FieldNames fieldNames;
+	private ProgressLogger progressLogger;
+	private DateTime watermark;
+
+	final private Logger logger = Log.getLogger(this.getClass());
+
+	/**
+	 * @param resources Session and database
+	 * @param config Job configuration, which must be Action UPDATE
+	 * @param overlapSeconds Number of seconds before the start of a poll which are read again
+	 */
+	public TableFollower(Resources resources, JobConfig config, int overlapSeconds) {
+		assert config.getAction() == Action.UPDATE;
+		this.config = config;
+		this.table = resources.getReaderSession().table(config.getSource());
+		this.sqlTableName = config.getTarget();
+		this.db = resources.getDatabaseWrapper();
+		this.overlapSeconds = overlapSeconds;
+		this.metrics = new Metrics(config.getName());
+		// If Since is not specified then only future changes are copied
+		this.watermark = config.getSince() != null ? config.getSince() : config.start;
+		assert this.watermark != null;
+	}
+
+	public String getName() {
+		return config.getName();
+	}
+
+	public DateTime getWatermark() {
+		return this.watermark;
+	}
+
+	public Metrics getMetrics() {
+		return this.metrics;
+	}
+
+	public TableFollower open() throws SQLException, IOException, InterruptedException {
+		Log.setTableContext(table, config.getName());
+		if (config.getAutoCreate())
+			db.createMissingTable(table, sqlTableName, config.getColumns());
+		writer = new DatabaseUpdateWriter(db, table, sqlTableName, config.getName());
+		writer.open(metrics);
+		fieldNames = (config.getColumns() == null) ? writer.getFieldNames() : config.getColumns();
+		progressLogger = new Log4jProgressLogger(this.getClass(), Action.UPDATE, metrics);
+		logger.info(Log.INIT, String.format("follow watermark=%s fields=%s", watermark, fieldNames));
+		return this;
+	}
+
+	/**
+	 * Read and write the records which have changed since the last poll.
+	 *
+	 * @return the number of records written
+	 */
+	public int poll() throws IOException, SQLException, JobCancelledException {
+		assert writer != null : "not open";
+		Log.setTableContext(table, config.getName());
+		// Taken before reading so that nothing committed during the poll is missed
+		DateTime started = table.rest().getInstanceTime();
+		int pageSize = config.getPageSize() != null ?
+			config.getPageSize() : table.getSession().defaultPageSize(table);
+		int written = 0;
+		RecordKey maxKey = null;
+		boolean finished = false;
+		while (!finished) {
+			EncodedQuery query = new EncodedQuery(table);
+			EncodedQuery filter = config.getFilter(table);
+			if (filter != null) query.addQuery(filter);
+			query.addUpdated(watermark, null);
+			query.excludeKeys(maxKey);
+			query.addOrderByKeys();
+			Parameters params = new Parameters();
+			params.add("sysparm_query", query.toString());
+			params.add("sysparm_fields", fieldNames.addKey().toString());
+			params.add("sysparm_limit", Integer.toString(pageSize));
+			params.add("sysparm_exclude_reference_link", "true");
+			params.add("sysparm_display_value", "false");
+			RecordList page = table.rest().getRecords(params);
+			metrics.addInput(page.size());
+			if (page.size() < pageSize) finished = true;
+			if (page.isEmpty()) break;
+			maxKey = page.maxKey();
+			// processRecords commits before returning
+			writer.processRecords(page, metrics, progressLogger);
+			written += page.size();
+		}
+		// Never move the watermark backwards, e.g. if the instance clock is adjusted
+		DateTime next = started.subtractSeconds(overlapSeconds);
+		if (next.compareTo(watermark) > 0) watermark = next;
+		if (written > 0)
+			logger.info(Log.PROCESS, String.format(
+				"follow written=%d watermark=%s", written, watermark));
+		return written;
+	}
+
+	public void close() {
+		if (writer != null) writer.close(metrics);
+		writer = null;
+	}
+
+}
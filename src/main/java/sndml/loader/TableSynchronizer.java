@@ -30,6 +30,7 @@ public class TableSynchronizer extends TableReader {
 	RecordKeySet updateSet;
 	RecordKeySet deleteSet;
 	RecordKeySet skipSet;
+	int threads = 1;
 	
 	public TableSynchronizer(Table table, DatabaseWrapper db, String sqlTableName, String writerName) {
 		super(table);
@@ -39,6 +40,16 @@ public class TableSynchronizer extends TableReader {
 		this.metrics = new Metrics(writerName);
 	}
 
+	/**
+	 * Number of threads used to read the records which are inserted or updated.
+	 * See {@link KeySetTableReader#setThreads(int)}.
+	 */
+	public TableSynchronizer setThreads(int threads) {
+		if (initialized) throw new IllegalStateException();
+		this.threads = threads;
+		return this;
+	}
+
 	public void prepare(Metrics metrics, ProgressLogger progress) 
 			throws IOException, SQLException, InterruptedException, JobCancelledException {
 		prepare(null, metrics, progress);
@@ -174,6 +185,7 @@ public class TableSynchronizer extends TableReader {
 			insertReader.setReaderName(insertPartName);
 			insertReader.setFields(this.fieldNames);
 			insertReader.setPageSize(this.getPageSize());
+			insertReader.setThreads(threads);
 			insertWriter.open(insertWriterMetrics);
 			Log.setTableContext(table, insertPartName);
 			insertReader.prepare(insertSet, insertWriter, insertWriterMetrics, progress);
@@ -197,6 +209,7 @@ public class TableSynchronizer extends TableReader {
 			updateReader.setReaderName(udpatePartName);
 			updateReader.setFields(this.fieldNames);
 			updateReader.setPageSize(this.getPageSize());
+			updateReader.setThreads(threads);
 			updateWriter.open(updateWriterMetrics);
 			Log.setTableContext(table, udpatePartName);
 			updateReader.prepare(updateSet, updateWriter, updateWriterMetrics, progress);
@@ -12,6 +12,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import sndml.agent.JobCancelledException;
+import sndml.util.DateTime;
 import sndml.util.Log;
 import sndml.util.Metrics;
 import sndml.util.ResourceException;
@@ -84,6 +85,80 @@ public class YamlLoader {
 		return loaderMetrics;
 	}
 
+	/**
+	 * Copy the changes to the tables continuously until the thread is interrupted.
+	 * Each table is polled every intervalSeconds.
+	 * If a poll fails with an {@link IOException} then the error is logged
+	 * and the table is polled again in the next cycle.
+	 * All jobs must be Action UPDATE.
+	 */
+	public void followTables(int intervalSeconds, int overlapSeconds)
+			throws SQLException, IOException, JobCancelledException {
+		ArrayList<TableFollower> followers = new ArrayList<TableFollower>();
+		for (JobRunner job : jobs) {
+			JobConfig jobConfig = job.getConfig();
+			if (jobConfig.getAction() != Action.UPDATE)
+				throw new ConfigParseException(String.format(
+					"Action %s not valid with --follow: %s", jobConfig.getAction(), jobConfig.getName()));
+			followers.add(new TableFollower(resources, jobConfig, overlapSeconds));
+		}
+		Log.setGlobalContext();
+		logger.info(Log.INIT, String.format(
+			"following %d tables interval=%ds overlap=%ds", followers.size(), intervalSeconds, overlapSeconds));
+		try {
+			for (TableFollower follower : followers) follower.open();
+			while (!Thread.currentThread().isInterrupted()) {
+				long started = System.currentTimeMillis();
+				for (TableFollower follower : followers) {
+					try {
+						follower.poll();
+					}
+					catch (JobCancelledException e) {
+						throw e;
+					}
+					catch (IOException e) {
+						// The watermark is unchanged, so the next poll reads the same records
+						logger.error(Log.PROCESS, String.format(
+							"%s poll failed: %s", follower.getName(), e.getMessage()), e);
+					}
+				}
+				Log.setGlobalContext();
+				if (metricsFile != null) writeFollowMetrics(followers);
+				long sleepMillis = intervalSeconds * 1000L - (System.currentTimeMillis() - started);
+				if (sleepMillis > 0) Thread.sleep(sleepMillis);
+			}
+		}
+		catch (InterruptedException e) {
+			logger.info(Log.FINISH, "follow interrupted");
+		}
+		finally {
+			for (TableFollower follower : followers) {
+				follower.close();
+				Metrics metrics = follower.getMetrics();
+				logger.info(Log.FINISH, String.format(
+					"%s watermark=%s inserted=%d updated=%d skipped=%d", follower.getName(),
+					follower.getWatermark(), metrics.getInserted(), metrics.getUpdated(), metrics.getSkipped()));
+			}
+		}
+	}
+
+	/**
+	 * Write the metrics file for <code>--follow</code>.
+	 * The start is the lowest watermark, so that if the process is restarted 
+	 * then <b>since: last</b> resumes where it stopped.
+	 */
+	private void writeFollowMetrics(ArrayList<TableFollower> followers) throws IOException {
+		DateTime start = null;
+		for (TableFollower follower : followers) {
+			DateTime watermark = follower.getWatermark();
+			if (start == null || watermark.compareTo(start) < 0) start = watermark;
+		}
+		statsWriter = new PrintWriter(metricsFile);
+		statsWriter.println("start=" + start);
+		for (TableFollower follower : followers) follower.getMetrics().write(statsWriter);
+		statsWriter.close();
+	}
+
 	/*
 	@Deprecated
 	public Metrics loadTablesConcurrent() 
@@ -0,0 +1,117 @@
+package sndml.servicenow;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import sndml.util.Log;
+
+/**
+ * <p>Sends a list of GET requests to the ServiceNow Batch API
+ * (<code>/api/now/v1/batch</code>) so that many small requests
+ * can be made with a single HTTP round trip.</p>
+ *
+ * <p>If there are more than {@link #MAX_REQUESTS} requests then they are
+ * divided among several batches.</p>
+ */
+public class BatchRequest {
+
+	public static final int MAX_REQUESTS = 100;
+	static final String BATCH_PATH = "api/now/v1/batch";
+	static final ObjectMapper mapper = new ObjectMapper();
+
+	final Session session;
+	private final List<URI> requests = new ArrayList<URI>();
+
+	final private Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	public BatchRequest(Session session) {
+		this.session = session;
+	}
+
+	/**
+	 * Add a GET request to the batch.
+	 * @return the index of the response in the list returned by {@link #execute()}
+	 */
+	public int add(URI uri) {
+		requests.add(uri);
+		return requests.size() - 1;
+	}
+
+	public int size() {
+		return requests.size();
+	}
+
+	/**
+	 * Send the requests and return the responses in the same order as the requests.
+	 *
+	 * @throws JsonResponseError if a request was not serviced or did not return status 200
+	 */
+	public List<ObjectNode> execute() throws IOException {
+		List<ObjectNode> result = new ArrayList<ObjectNode>(requests.size());
+		for (int start = 0; start < requests.size(); start += MAX_REQUESTS) {
+			int end = Math.min(start + MAX_REQUESTS, requests.size());
+			result.addAll(executeBatch(start, end));
+		}
+		return result;
+	}
+
+	private List<ObjectNode> executeBatch(int start, int end) throws IOException {
+		ObjectNode body = mapper.createObjectNode();
+		body.put("batch_request_id", Integer.toString(start));
+		ArrayNode restRequests = body.putArray("rest_requests");
+		for (int i = start; i < end; ++i) {
+			ObjectNode restRequest = restRequests.addObject();
+			restRequest.put("id", Integer.toString(i));
+			restRequest.put("method", "GET");
+			restRequest.put("url", getRelativeURL(requests.get(i)));
+			ArrayNode headers = restRequest.putArray("headers");
+			headers.addObject().put("name", "Accept").put("value", "application/json");
+		}
+		URI uri = session.getURI(BATCH_PATH);
+		// the batch only contains GET requests
+		JsonRequest request = new JsonRequest(session, uri, HttpMethod.POST, body).setIdempotent(true);
+		ObjectNode responseObj = request.execute();
+		request.checkForInsufficientRights();
+		if (responseObj == null) throw new JsonResponseException(request);
+		logger.debug(Log.RESPONSE, String.format("batch %d-%d", start, end - 1));
+		ObjectNode[] responses = new ObjectNode[end - start];
+		for (JsonNode serviced : responseObj.path("serviced_requests")) {
+			int id = Integer.parseInt(serviced.get("id").asText());
+			int status = serviced.path("status_code").asInt();
+			if (id < start || id >= end)
+				throw new JsonResponseError("unexpected batch id: " + id);
+			String text = new String(Base64.getDecoder().decode(serviced.path("body").asText()), "UTF-8");
+			if (status != 200)
+				throw new JsonResponseError(String.format(
+					"batch status=%d url=%s\n%s", status, requests.get(id), text));
+			responses[id - start] = (ObjectNode) mapper.readTree(text);
+		}
+		List<ObjectNode> result = new ArrayList<ObjectNode>(responses.length);
+		for (int i = 0; i < responses.length; ++i) {
+			if (responses[i] == null)
+				throw new JsonResponseError("batch request not serviced: " + requests.get(start + i));
+			result.add(responses[i]);
+		}
+		return result;
+	}
+
+	/**
+	 * The Batch API requires a URL which is relative to the instance.
+	 */
+	static String getRelativeURL(URI uri) {
+		String query = uri.getRawQuery();
+		return query == null ? uri.getRawPath() : uri.getRawPath() + "?" + query;
+	}
+
+}
@@ -0,0 +1,28 @@
+package sndml.servicenow;
+
+import java.io.IOException;
+
+/**
+ * Receives the progress of a {@link TableReader} so that an interrupted load
+ * can be resumed from the last key which was committed.
+ */
+public interface Checkpoint {
+
+	/**
+	 * Called after a page has been processed (and committed) by the writer.
+	 * 
+	 * @param reader The reader which processed the page
+	 * @param lastKey The highest sys_id that has been processed
+	 * @param rowCount Number of rows processed by the reader so far
+	 */
+	void pageComplete(TableReader reader, RecordKey lastKey, int rowCount) throws IOException;
+
+	/**
+	 * Called after the reader has processed all rows.
+	 * 
+	 * @param reader The reader which has completed
+	 * @param rowCount Number of rows processed by the reader
+	 */
+	void readerComplete(TableReader reader, int rowCount) throws IOException;
+
+}
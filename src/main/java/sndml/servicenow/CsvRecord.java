@@ -0,0 +1,71 @@
+package sndml.servicenow;
+
+import java.util.Iterator;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import sndml.util.FieldNames;
+
+/**
+ * A record which was read from a CSV export by a {@link CsvRecordStream}.
+ * All records from the same response share the column index of the header row.
+ */
+public class CsvRecord extends TableRecord {
+
+	final FieldNames header;
+	final Map<String, Integer> columns;
+	final String[] values;
+
+	CsvRecord(Table table, FieldNames header, Map<String, Integer> columns, String[] values) {
+		super(table);
+		this.header = header;
+		this.columns = columns;
+		this.values = values;
+	}
+
+	@Override
+	public String getValue(String fieldname) {
+		Integer index = columns.get(fieldname);
+		if (index == null || index >= values.length) return null;
+		String value = values[index];
+		if (value == null || value.length() == 0) return null;
+		return value;
+	}
+
+	/**
+	 * Display values are not available from a CSV export.
+	 * @return null
+	 */
+	@Override
+	public String getDisplayValue(String fieldname) {
+		return null;
+	}
+
+	@Override
+	public Iterator<String> keys() {
+		return header.iterator();
+	}
+
+	@Override
+	public FieldNames getFieldNames() {
+		FieldNames names = new FieldNames(header.size());
+		names.addAll(header);
+		return names;
+	}
+
+	@Override
+	public String toString() {
+		return asText(false);
+	}
+
+	@Override
+	public String asText(boolean pretty) {
+		ObjectNode obj = JsonRequest.mapper.createObjectNode();
+		for (int i = 0; i < header.size(); ++i) {
+			obj.put(header.get(i), i < values.length ? values[i] : null);
+		}
+		return pretty ? obj.toPrettyString() : obj.toString();
+	}
+
+}
@@ -0,0 +1,186 @@
+package sndml.servicenow;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+
+import sndml.util.FieldNames;
+import sndml.util.Log;
+
+/**
+ * <p>{@link RecordStream} which tokenizes a CSV export directly from the response entity.
+ * Only a single record is held in memory at any time.</p>
+ *
+ * <p>The first row of the file must contain the field names.
+ * Values may be quoted as described in RFC 4180: a quoted value may contain
+ * commas and line breaks, and a quote is represented by two quotes.</p>
+ */
+public class CsvRecordStream extends RecordStream {
+
+	private final BufferedReader input;
+	private final Closeable response;
+	private final HttpEntity entity;
+	private final FieldNames header;
+	private final Map<String, Integer> columns;
+	private final StringBuilder token = new StringBuilder();
+	private boolean exhausted = false;
+	private long charsRead = 0;
+
+	final private Logger logger = Log.getLogger(this.getClass());
+
+	/**
+	 * @param table Table from which the records are being read
+	 * @param response Response whose entity contains the CSV file
+	 */
+	CsvRecordStream(Table table, CloseableHttpResponse response) throws IOException {
+		this(table, new InputStreamReader(response.getEntity().getContent(), StandardCharsets.UTF_8),
+			response, response.getEntity());
+	}
+
+	/**
+	 * Read records from a character stream. Used for testing.
+	 */
+	CsvRecordStream(Table table, Reader reader) throws IOException {
+		this(table, reader, reader, null);
+	}
+
+	private CsvRecordStream(Table table, Reader reader, Closeable response, HttpEntity entity)
+			throws IOException {
+		super(table);
+		this.input = new BufferedReader(reader);
+		this.response = response;
+		this.entity = entity;
+		this.header = new FieldNames();
+		this.columns = new HashMap<String, Integer>();
+		try {
+			List<String> names = readRow();
+			if (names == null) {
+				exhausted = true;
+				return;
+			}
+			for (String name : names) {
+				columns.put(name, header.size());
+				header.add(name);
+			}
+			if (!columns.containsKey("sys_id"))
+				throw new ServiceNowError("sys_id not found in CSV header: " + header);
+		}
+		catch (IOException | RuntimeException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Return the field names from the header row.
+	 */
+	public FieldNames getHeader() {
+		return this.header;
+	}
+
+	@Override
+	protected TableRecord readNext() throws IOException {
+		if (exhausted) return null;
+		List<String> row = readRow();
+		// ignore a blank line at the end of the file
+		while (row != null && row.size() == 1 && row.get(0).length() == 0) row = readRow();
+		if (row == null) {
+			exhausted = true;
+			return null;
+		}
+		return new CsvRecord(table, header, columns, row.toArray(new String[row.size()]));
+	}
+
+	/**
+	 * Read the values from the next row of the file.
+	 * @return null at the end of the file
+	 */
+	private List<String> readRow() throws IOException {
+		int c = read();
+		if (c == -1) return null;
+		List<String> row = new ArrayList<String>(Math.max(header.size(), 10));
+		token.setLength(0);
+		boolean quoted = false;
+		while (true) {
+			if (quoted) {
+				if (c == -1)
+					throw new ServiceNowError("unterminated quoted value in CSV row " + (size() + 1));
+				if (c == '"') {
+					c = read();
+					if (c == '"') {
+						token.append('"');
+					}
+					else {
+						quoted = false;
+						continue;
+					}
+				}
+				else
+					token.append((char) c);
+			}
+			else {
+				if (c == '"') {
+					quoted = true;
+				}
+				else if (c == ',') {
+					row.add(token.toString());
+					token.setLength(0);
+				}
+				else if (c == '\r' || c == '\n' || c == -1) {
+					if (c == '\r') {
+						input.mark(1);
+						if (read() != '\n') {
+							input.reset();
+							charsRead -= 1;
+						}
+					}
+					row.add(token.toString());
+					return row;
+				}
+				else
+					token.append((char) c);
+			}
+			c = read();
+		}
+	}
+
+	private int read() throws IOException {
+		int c = input.read();
+		if (c != -1) charsRead += 1;
+		return c;
+	}
+
+	/**
+	 * Return the number of characters read from the response so far.
+	 */
+	@Override
+	public long getBytesRead() {
+		return charsRead;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			// Drain the remainder so that the connection can be reused.
+			// If the stream was abandoned early, closing the response will abort the connection.
+			if (exhausted && entity != null) EntityUtils.consume(entity);
+		}
+		finally {
+			response.close();
+		}
+		logger.debug(Log.RESPONSE, String.format("streamed %d rows", size()));
+	}
+
+}
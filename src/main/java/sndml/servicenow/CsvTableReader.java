@@ -0,0 +1,111 @@
+package sndml.servicenow;
+
+import java.io.IOException;
+import java.net.URI;
+import java.sql.SQLException;
+
+import sndml.agent.JobCancelledException;
+import sndml.util.Log;
+import sndml.util.Metrics;
+import sndml.util.Parameters;
+import sndml.util.ProgressLogger;
+
+/**
+ * <p>Reads a table using the CSV export processor (<code>table.do?CSV</code>)
+ * instead of the REST Table API. A CSV file is much smaller than the equivalent
+ * JSON, so this reader may be faster for full loads of large tables.</p>
+ *
+ * <p>Like {@link RestTableReader}, the records are read in <code>sys_id</code> order,
+ * and with each page the query is modified to only include records with
+ * a <code>sys_id</code> greater than the highest value from the previous page.
+ * Each page is tokenized from the response and passed to the writer one record at a time.</p>
+ *
+ * <p>The export processor formats values using the preferences of the user.
+ * The user must have a time zone of GMT and the default date and time formats,
+ * otherwise {@link #prepare} throws an exception.
+ * Display values are not available, and the export processor
+ * may limit the number of records in a page regardless of the page size.</p>
+ */
+public class CsvTableReader extends TableReader {
+
+	final protected RestTableAPI restAPI;
+	protected TableStats stats = null;
+
+	public CsvTableReader(Table table) {
+		super(table);
+		this.restAPI = table.rest();
+		this.orderBy = OrderBy.KEYS;
+	}
+
+	@Override
+	public void prepare(RecordWriter writer, Metrics metrics, ProgressLogger progressLogger)
+			throws IOException, InterruptedException {
+		beginPrepare(writer, metrics, progressLogger);
+		// Dates in the CSV cannot be parsed unless they are yyyy-MM-dd HH:mm:ss in GMT
+		table.getSession().verifyDateFormat();
+		EncodedQuery statsQuery = getStatsQuery();
+		logger.debug(Log.INIT, String.format("initialize query=\"%s\"", statsQuery));
+		stats = restAPI.getStats(statsQuery, false);
+		endPrepare(stats.getCount());
+		logger.debug(Log.INIT, String.format("expected=%d", getExpected()));
+	}
+
+	@Override
+	public Metrics call() throws IOException, SQLException, JobCancelledException, InterruptedException {
+		Log.setTableContext(table, this.getReaderName());
+		progress.logStart();
+		assert writer != null;
+		assert metrics != null;
+		int rowCount = 0;
+		RecordKey maxKey = null;
+		boolean finished = false;
+		if (stats.count == 0) {
+			finished = true;
+			logger.debug(Log.PROCESS, "expecting 0 rows; bypassing query");
+		}
+		int pageSize = getPageSize();
+		while (!finished) {
+			URI uri = getPageURI(maxKey, pageSize);
+			metrics.addPage(pageSize);
+			Log.setMethodContext(table, "CSV");
+			JsonRequest request = new JsonRequest(table.getSession(), uri, HttpMethod.GET, null);
+			CsvRecordStream stream = request.executeCsvStream(table);
+			stream.setInputMetrics(metrics);
+			try {
+				writer.processRecords(stream, metrics, progress);
+			}
+			finally {
+				stream.close();
+			}
+			int pageRows = stream.size();
+			if (pageRows > 0) maxKey = stream.maxKey();
+			logger.debug(Log.RESPONSE, String.format("streamed %d rows", pageRows));
+			rowCount += pageRows;
+			if (pageRows == 0 || rowCount >= getExpected()) finished = true;
+			logger.debug(Log.PROCESS, String.format("processed %d rows so far", rowCount));
+			if (maxRows != null && rowCount > maxRows)
+				throw new TooManyRowsException(table, maxRows, rowCount);
+		}
+		progress.logComplete();
+		return metrics;
+	}
+
+	/**
+	 * Return the URI for the next page.
+	 * Only values greater than maxKey will be returned.
+	 */
+	protected URI getPageURI(RecordKey maxKey, int pageSize) {
+		setKeyExclusion(maxKey);
+		Parameters params = new Parameters();
+		params.add("sysparm_record_count", Integer.toString(pageSize));
+		if (fieldNames != null)
+			params.add("sysparm_fields", fieldNames.addKey().toString());
+		else
+			params.add("sysparm_default_export_fields", "all");
+		if (viewName != null) params.add("sysparm_view", viewName);
+		EncodedQuery query = getQuery();
+		if (!query.isEmpty()) params.add("sysparm_query", query.toString());
+		return table.getSession().getURI(table.getName() + ".do?CSV", params);
+	}
+
+}
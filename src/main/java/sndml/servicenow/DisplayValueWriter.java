@@ -0,0 +1,51 @@
+package sndml.servicenow;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Map;
+
+import sndml.agent.JobCancelledException;
+import sndml.util.Metrics;
+import sndml.util.ProgressLogger;
+
+/**
+ * {@link RecordWriter} which obtains the display values of reference fields
+ * using a {@link ReferenceResolver}, and then passes each page to another writer.
+ * The resolver is called before the target writer is locked, so that the
+ * threads of a partitioned job can resolve their pages concurrently.
+ */
+public class DisplayValueWriter extends RecordWriter {
+
+	final RecordWriter writer;
+	final ReferenceResolver resolver;
+	final Map<String, String> references;
+
+	/**
+	 * @param writer The target writer
+	 * @param resolver Resolver, which may be shared by several jobs
+	 * @param references Reference fields to be resolved, with the name of the referenced table
+	 */
+	public DisplayValueWriter(RecordWriter writer, ReferenceResolver resolver, Map<String, String> references) {
+		this.writer = writer;
+		this.resolver = resolver;
+		this.references = references;
+	}
+
+	@Override
+	public void processRecords(RecordList recs, Metrics metrics, ProgressLogger progressLogger)
+			throws JobCancelledException, IOException, SQLException {
+		writer.processRecords(resolver.resolve(recs, references), metrics, progressLogger);
+	}
+
+	@Override
+	public RecordWriter open(Metrics metrics) throws IOException, SQLException {
+		writer.open(metrics);
+		return this;
+	}
+
+	@Override
+	public void close(Metrics metrics) {
+		writer.close(metrics);
+	}
+
+}
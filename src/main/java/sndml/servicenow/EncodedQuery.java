@@ -241,6 +241,19 @@ public class EncodedQuery implements Cloneable {
 		return addCreated(created.getStart(), created.getEnd());
 	}
 	
+	/**
+	 * Adds a range of sys_id values to a filter.
+	 * 
+	 * @param starting Select records with sys_id greater than or equal to this value
+	 * @param ending Select records with sys_id less than this value
+	 * @return The modified original filter
+	 */
+	public EncodedQuery addKeyRange(String starting, String ending) {
+		if (starting != null) this.addQuery("sys_id", GREATER_THAN_OR_EQUALS, starting);
+		if (ending   != null) this.addQuery("sys_id", LESS_THAN, ending);
+		return this;
+	}
+	
 	public EncodedQuery addOrderByKeys() {
 		assert this.orderBy != OrderBy.FIELDS;
 		this.addQuery(ORDER_BY + "sys_id");
@@ -71,6 +71,13 @@ public class FieldDefinition {
 		return max_length; 
 	}
 	
+	/**
+	 * Return the length of this field, or null if the length is not known.
+	 */
+	Integer getMaxLength() {
+		return max_length;
+	}
+	
 	/**
 	 * If this is a reference field then return the name of the
 	 * referenced table.  Otherwise return null.
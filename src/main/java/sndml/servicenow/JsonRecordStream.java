@@ -0,0 +1,120 @@
+package sndml.servicenow;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import sndml.util.Log;
+
+/**
+ * {@link RecordStream} which uses a Jackson {@link JsonParser} to decode
+ * the records of a JSON response directly from the response entity.
+ * Only a single record is held in memory at any time.
+ */
+public class JsonRecordStream extends RecordStream {
+
+	private final JsonRequest request;
+	private final CloseableHttpResponse response;
+	private final HttpEntity entity;
+	private final JsonParser parser;
+	private boolean exhausted = false;
+	private long bytesRead = 0;
+
+	final private Logger logger = Log.getLogger(this.getClass());
+
+	/**
+	 * @param table Table from which the records are being read
+	 * @param request Request which was executed
+	 * @param response Response whose entity contains the records
+	 * @param arrayName Name of the array which holds the records:
+	 * "result" for the REST Table API or "records" for JSONv2
+	 */
+	JsonRecordStream(Table table, JsonRequest request, CloseableHttpResponse response, String arrayName)
+			throws IOException {
+		super(table);
+		this.request = request;
+		this.response = response;
+		this.entity = response.getEntity();
+		InputStream input = entity.getContent();
+		this.parser = JsonRequest.mapper.getFactory().createParser(input);
+		try {
+			seekArray(arrayName);
+		}
+		catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Advance the parser to the start of the array which contains the records.
+	 * If the response contains an error object then throw an exception.
+	 */
+	private void seekArray(String arrayName) throws IOException {
+		if (parser.nextToken() != JsonToken.START_OBJECT)
+			throw new JsonResponseError("expected object: " + request.getURI());
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String fieldName = parser.getCurrentName();
+			JsonToken token = parser.nextToken();
+			if (arrayName.equals(fieldName) && token == JsonToken.START_ARRAY) return;
+			if ("error".equals(fieldName) && token == JsonToken.START_OBJECT) {
+				ObjectNode errorObj = JsonRequest.mapper.readTree(parser);
+				ObjectNode responseObj = JsonRequest.mapper.createObjectNode();
+				responseObj.set("error", errorObj);
+				request.responseObj = responseObj;
+				request.responseText = responseObj.toString();
+				logger.warn(Log.RESPONSE, request.method.toString() + " " + request.getURI());
+				logger.warn(Log.RESPONSE, request.responseText);
+				request.checkForInsufficientRights();
+				throw new JsonResponseException(request);
+			}
+			parser.skipChildren();
+		}
+		// array not found; treat as empty
+		exhausted = true;
+	}
+
+	@Override
+	protected TableRecord readNext() throws IOException {
+		if (exhausted) return null;
+		JsonToken token = parser.nextToken();
+		if (token == JsonToken.START_OBJECT) {
+			ObjectNode obj = JsonRequest.mapper.readTree(parser);
+			return new JsonRecord(table, obj);
+		}
+		if (token != JsonToken.END_ARRAY)
+			throw new JsonResponseError("unexpected token " + token + ": " + request.getURI());
+		exhausted = true;
+		return null;
+	}
+
+	@Override
+	public long getBytesRead() {
+		if (parser.isClosed()) return bytesRead;
+		return parser.currentLocation().getByteOffset();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			bytesRead = parser.currentLocation().getByteOffset();
+			parser.close();
+			// Drain the remainder so that the connection can be reused.
+			// If the stream was abandoned early, closing the response will abort the connection.
+			if (exhausted) EntityUtils.consume(entity);
+		}
+		finally {
+			response.close();
+		}
+		logger.debug(Log.RESPONSE, String.format("streamed %d rows", size()));
+	}
+
+}
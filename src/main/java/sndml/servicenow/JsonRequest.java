@@ -1,10 +1,18 @@
 package sndml.servicenow;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpVersion;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
@@ -12,8 +20,10 @@ import org.apache.http.client.methods.HttpPatch;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.utils.DateUtils;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicStatusLine;
 import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -27,11 +37,14 @@ import sndml.util.Log;
 public class JsonRequest extends ServiceNowRequest {
 
 	static final ObjectMapper mapper = new ObjectMapper();
+	final protected Session session;
 	final protected ObjectNode requestObj;
 	protected ObjectNode responseObj = null;
 	protected ObjectNode resultObj = null;
 	protected RecordKey runKey = null; // used for logging and/or exceptions
 	protected boolean executed = false;
+	protected boolean idempotent = 
+		(method == HttpMethod.GET || method == HttpMethod.PUT || method == HttpMethod.DELETE);
 	
 	final protected Logger logger = LoggerFactory.getLogger(this.getClass());
 
@@ -41,15 +54,28 @@ public class JsonRequest extends ServiceNowRequest {
 	
 	public JsonRequest(Session session, URI uri, HttpMethod method, ObjectNode body) {
 		super(session.getClient(), uri, method);
+		this.session = session;
 		this.requestObj = body;
 	}
 
 	public JsonRequest(Session session, URI uri, HttpMethod method, ObjectNode body, RecordKey runKey) {
 		super(session.getClient(), uri, method);
+		this.session = session;
 		this.requestObj = body;
 		this.runKey = runKey;
 	}
 	
+	/**
+	 * Declare that the request may be safely repeated.
+	 * GET, PUT and DELETE requests are idempotent by default.
+	 * A POST which only reads data (such as a JSONv2 <b>getRecords</b>) should set this to true,
+	 * so that it will be retried if the instance responds with HTTP 503.
+	 */
+	public JsonRequest setIdempotent(boolean value) {
+		this.idempotent = value;
+		return this;
+	}
+	
 	public ObjectNode getResult() throws IOException {
 		if (resultObj != null) return resultObj;
 		if (!executed) execute();
@@ -69,7 +95,192 @@ public class JsonRequest extends ServiceNowRequest {
 		return responseObj;
 	}
 	
-	private void executeRequest() throws IOException, JobCancelledException {
+	/**
+	 * Execute the request using the non-blocking client from {@link Session#getAsyncClient()}.
+	 * No thread is held while the request is in flight.
+	 * The returned future completes with the same value that {@link #execute()} would return,
+	 * or completes exceptionally with the same exception that {@link #execute()} would throw.
+	 */
+	public CompletableFuture<ObjectNode> executeAsync() {
+		assert executed == false;
+		java.net.http.HttpRequest request;
+		try {
+			request = createAsyncRequest();
+		} catch (IOException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+		return sendAsync(request, 0).
+			thenApply(response -> {
+				try {
+					return processAsyncResponse(response);
+				} catch (IOException e) {
+					throw new CompletionException(e);
+				}
+			});
+	}
+	
+	/**
+	 * Send the request through the {@link RequestGovernor} for the instance,
+	 * and if throttled then resend it after the Retry-After delay without blocking a thread.
+	 * The calling thread waits if the governor is not allowing more requests;
+	 * it does not wait for the response.
+	 */
+	private CompletableFuture<java.net.http.HttpResponse<String>> sendAsync(
+			java.net.http.HttpRequest request, int attempt) {
+		RequestGovernor governor = session.getGovernor();
+		long ticket;
+		try {
+			ticket = governor.acquire();
+		} catch (InterruptedIOException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+		return session.getAsyncClient().
+			sendAsync(request, java.net.http.HttpResponse.BodyHandlers.ofString()).
+			whenComplete((response, e) -> {
+				if (e != null) governor.release();
+			}).
+			thenCompose(response -> {
+				int code = response.statusCode();
+				if (!isThrottled(code)) {
+					governor.release();
+					return CompletableFuture.completedFuture(response);
+				}
+				String retryAfter = response.headers().firstValue("Retry-After").orElse(null);
+				long delay = RequestGovernor.parseRetryAfter(retryAfter, governor.getRetryAfterMillis(null, attempt));
+				governor.throttled(delay, ticket);
+				if (!isRetryable(code) || attempt >= governor.getRetryLimit())
+					return CompletableFuture.completedFuture(response);
+				logger.warn(Log.RESPONSE, String.format(
+					"%s %s status=%d retry=%d delay=%d", method.name(), uri, code, attempt + 1, delay));
+				Executor delayed = CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS);
+				return CompletableFuture.supplyAsync(() -> request, delayed).
+					thenCompose(r -> sendAsync(r, attempt + 1));
+			});
+	}
+	
+	private java.net.http.HttpRequest createAsyncRequest() throws IOException {
+		assert uri != null;
+		assert method != null;
+		logger.debug(Log.REQUEST, method.name() + " " + uri.toURL() + " async");
+		java.net.http.HttpRequest.BodyPublisher body;
+		if (requestObj == null) {
+			body = java.net.http.HttpRequest.BodyPublishers.noBody();
+		}
+		else {
+			requestText = requestObj.toString();
+			if (logger.isTraceEnabled()) logger.trace(Log.REQUEST, requestText);
+			body = java.net.http.HttpRequest.BodyPublishers.ofString(requestText, StandardCharsets.UTF_8);
+		}
+		java.net.http.HttpRequest.Builder builder = java.net.http.HttpRequest.newBuilder(uri).
+			method(method.name(), body).
+			header("Accept", "application/json").
+			header("Authorization", session.getBasicAuthorization());
+		if (requestObj != null) builder.header("Content-Type", "application/json");
+		int timeout = session.getSocketTimeoutMillis();
+		if (timeout > 0) builder.timeout(Duration.ofMillis(timeout));
+		return builder.build();
+	}
+	
+	private ObjectNode processAsyncResponse(java.net.http.HttpResponse<String> response) 
+			throws IOException {
+		statusCode = response.statusCode();
+		statusLine = new BasicStatusLine(HttpVersion.HTTP_1_1, statusCode, null);
+		responseContentType = response.headers().firstValue("Content-Type").orElse(null);
+		String body = response.body();
+		responseText = (body == null || body.length() == 0) ? null : body;
+		checkResponse();
+		if (responseText == null) return null;
+		responseObj = (ObjectNode) mapper.readTree(responseText);
+		if (responseObj.has("error")) {
+			logger.warn(Log.RESPONSE, method.toString() + " " + uri.toString());
+			logger.warn(Log.RESPONSE, responseText);
+		}
+		return responseObj;
+	}
+	
+	/**
+	 * Execute the request and return a {@link JsonRecordStream} which decodes
+	 * the records from the response entity as they are consumed.
+	 * The caller must close the stream.
+	 * 
+	 * @param table Table from which records are being read
+	 * @param arrayName Name of the array which holds the records
+	 */
+	public RecordStream executeStream(Table table, String arrayName) throws IOException {
+		assert executed == false;
+		CloseableHttpResponse response = executeGoverned();
+		statusLine = response.getStatusLine();
+		statusCode = statusLine.getStatusCode();
+		HttpEntity responseEntity = response.getEntity();
+		responseContentType = null;
+		if (responseEntity != null) {
+			Header contentTypeHeader = responseEntity.getContentType();
+			if (contentTypeHeader != null) responseContentType = contentTypeHeader.getValue();
+		}
+		if (statusCode == 200 && responseContentType != null && 
+				responseContentType.startsWith("application/json")) {
+			logger.debug(Log.RESPONSE, String.format(
+				"status=\"%s\" contentType=%s streaming", statusLine, responseContentType));
+			executed = true;
+			return new JsonRecordStream(table, this, response, arrayName);
+		}
+		// Not a normal response; read it completely and check for errors
+		responseText = responseEntity == null ? null : EntityUtils.toString(responseEntity);
+		if (responseText != null && responseText.length() == 0) responseText = null;
+		response.close();
+		checkResponse();
+		// 204 No Content
+		if (responseText == null) return RecordStream.empty(table);
+		if (responseContentType != null && responseContentType.startsWith("application/json")) {
+			responseObj = (ObjectNode) mapper.readTree(responseText);
+			checkForInsufficientRights();
+		}
+		throw new JsonResponseException(this);
+	}
+
+	/**
+	 * Execute a GET request for a CSV export and return a {@link CsvRecordStream}
+	 * which tokenizes the records from the response entity as they are consumed.
+	 * The caller must close the stream.
+	 *
+	 * @param table Table from which records are being read
+	 */
+	public CsvRecordStream executeCsvStream(Table table) throws IOException {
+		assert executed == false;
+		assert method == HttpMethod.GET;
+		CloseableHttpResponse response = executeGoverned();
+		statusLine = response.getStatusLine();
+		statusCode = statusLine.getStatusCode();
+		HttpEntity responseEntity = response.getEntity();
+		responseContentType = null;
+		if (responseEntity != null) {
+			Header contentTypeHeader = responseEntity.getContentType();
+			if (contentTypeHeader != null) responseContentType = contentTypeHeader.getValue();
+		}
+		// The export processor may return text/csv or application/octet-stream.
+		// An HTML or JSON response indicates an error.
+		if (statusCode == 200 && responseContentType != null &&
+				!responseContentType.startsWith("text/html") &&
+				!responseContentType.startsWith("application/json")) {
+			logger.debug(Log.RESPONSE, String.format(
+				"status=\"%s\" contentType=%s streaming", statusLine, responseContentType));
+			executed = true;
+			return new CsvRecordStream(table, response);
+		}
+		responseText = responseEntity == null ? null : EntityUtils.toString(responseEntity);
+		if (responseText != null && responseText.length() == 0) responseText = null;
+		response.close();
+		checkResponse();
+		// 204 No Content has no content type
+		if (responseText != null && responseContentType != null && 
+				responseContentType.startsWith("application/json")) {
+			responseObj = (ObjectNode) mapper.readTree(responseText);
+			checkForInsufficientRights();
+		}
+		throw new JsonResponseException(this);
+	}
+
+	private HttpUriRequest createHttpRequest() throws IOException {
 		assert client != null;
 		assert uri != null;
 		assert method != null;
@@ -117,9 +328,65 @@ public class JsonRequest extends ServiceNowRequest {
 			throw new AssertionError();
 		}
 		request.setHeader("Accept", "application/json");
-		CloseableHttpResponse response = client.execute(request);		
+		return request;
+	}
+	
+	/**
+	 * Send the request through the {@link RequestGovernor} for the instance.
+	 * If the instance responds with HTTP 429, or with 503 to an idempotent request, 
+	 * then the request is retried after the delay specified by the <code>Retry-After</code> header.
+	 */
+	private CloseableHttpResponse executeGoverned() throws IOException {
+		RequestGovernor governor = session.getGovernor();
+		int attempt = 0;
+		while (true) {
+			HttpUriRequest request = createHttpRequest();
+			long ticket = governor.acquire();
+			CloseableHttpResponse response;
+			try {
+				response = client.execute(request);
+			}
+			catch (IOException e) {
+				governor.release();
+				throw e;
+			}
+			int code = response.getStatusLine().getStatusCode();
+			if (!isThrottled(code)) {
+				governor.release();
+				return response;
+			}
+			long delay = governor.getRetryAfterMillis(response.getFirstHeader("Retry-After"), attempt);
+			governor.throttled(delay, ticket);
+			if (!isRetryable(code) || attempt >= governor.getRetryLimit()) return response;
+			EntityUtils.consumeQuietly(response.getEntity());
+			response.close();
+			attempt += 1;
+			logger.warn(Log.RESPONSE, String.format(
+				"%s %s status=%d retry=%d", method.name(), uri, code, attempt));
+		}
+	}
+	
+	static boolean isThrottled(int statusCode) {
+		// 429 Too Many Requests
+		// 503 Service Unavailable
+		return statusCode == 429 || statusCode == 503;
+	}
+	
+	/**
+	 * A 429 means that the instance did not process the request, so it can always be retried.
+	 * A 503 may have been returned after the request was processed,
+	 * so it is only retried if the request is idempotent.
+	 */
+	boolean isRetryable(int statusCode) {
+		return statusCode == 429 || (statusCode == 503 && idempotent);
+	}
+	
+	private void executeRequest() throws IOException, JobCancelledException {
+		CloseableHttpResponse response = executeGoverned();
 		statusLine = response.getStatusLine();		
 		statusCode = statusLine.getStatusCode();
+		Header dateHeader = response.getFirstHeader("Date");
+		responseDate = dateHeader == null ? null : DateUtils.parseDate(dateHeader.getValue());
 		HttpEntity responseEntity = response.getEntity();
 		responseContentType = null;
 		if (responseEntity == null) {
@@ -131,6 +398,10 @@ public class JsonRequest extends ServiceNowRequest {
 			responseText = EntityUtils.toString(responseEntity);			
 		}
 		response.close();
+		checkResponse();
+	}
+	
+	private void checkResponse() throws IOException, JobCancelledException {
 		int responseLen = responseText == null ? 0 : responseText.length();
 		logger.debug(Log.RESPONSE,
 				String.format("status=\"%s\" contentType=%s len=%d", 
@@ -155,6 +426,11 @@ public class JsonRequest extends ServiceNowRequest {
 			logger.error(Log.RESPONSE, this.dump());
 			throw new InsufficientRightsException(this);
 		}
+		// 429 Too Many Requests or 503 Service Unavailable after all retries
+		else if (isThrottled(statusCode)) {
+			this.logResponseError(logger);
+			throw new InstanceUnavailableException(this);
+		}
 		// 404 Not Found
 		else if (statusCode == 404 /* Not Found */) {
 			this.logResponseError(logger);
@@ -2,6 +2,7 @@ package sndml.servicenow;
 
 import java.io.IOException;
 import java.net.URI;
+import java.util.concurrent.CompletableFuture;
 import org.slf4j.Logger;
 
 import com.fasterxml.jackson.databind.node.ArrayNode;
@@ -33,7 +34,8 @@ public class JsonTableAPI extends TableAPI {
 		params.put("sysparm_action",  "getKeys");
 		if (!EncodedQuery.isEmpty(query)) params.put("sysparm_query", query.toString());
 		ObjectNode requestObj = params.toJSON();
-		JsonRequest request = new JsonRequest(session, uri, HttpMethod.POST, requestObj);		
+		JsonRequest request = new JsonRequest(session, uri, HttpMethod.POST, requestObj);
+		request.setIdempotent(true);
 		ObjectNode responseObj = request.execute();
 		ArrayNode recordsObj = (ArrayNode) responseObj.get("records");
 		RecordKeySet keys = new RecordKeySet(recordsObj);
@@ -47,6 +49,7 @@ public class JsonTableAPI extends TableAPI {
 		params.add("sysparm_sys_id",  sys_id.toString());
 		ObjectNode requestObj = params.toJSON();
 		JsonRequest request = new JsonRequest(session, uri, HttpMethod.POST, requestObj);
+		request.setIdempotent(true);
 		ObjectNode responseObj = request.execute();
 		assert responseObj.has("records");
 		assert responseObj.get("records").isArray();
@@ -75,6 +78,7 @@ public class JsonTableAPI extends TableAPI {
 		ObjectNode requestObj = params.toJSON();
 		requestObj.put("sysparm_action", "getRecords");
 		JsonRequest request = new JsonRequest(session, uri, HttpMethod.POST, requestObj);
+		request.setIdempotent(true);
 		ObjectNode responseObj = request.execute();
 		assert responseObj.has("records");
 		assert responseObj.get("records").isArray();
@@ -82,6 +86,24 @@ public class JsonTableAPI extends TableAPI {
 		return new RecordList(table, recordsObj);
 	}
 		
+	/**
+	 * Request records using the non-blocking client.
+	 * The future completes exceptionally if the request fails.
+	 */
+	public CompletableFuture<RecordList> getRecordsAsync(Parameters params) {
+		Log.setMethodContext(table, "getRecords");
+		ObjectNode requestObj = params.toJSON();
+		requestObj.put("sysparm_action", "getRecords");
+		JsonRequest request = new JsonRequest(session, uri, HttpMethod.POST, requestObj);
+		request.setIdempotent(true);
+		return request.executeAsync().thenApply(responseObj -> {
+			assert responseObj.has("records");
+			assert responseObj.get("records").isArray();
+			ArrayNode recordsObj = (ArrayNode) responseObj.get("records");
+			return new RecordList(table, recordsObj);
+		});
+	}
+		
 	public InsertResponse insertRecord(Parameters fields) throws IOException {
 		throw new UnsupportedOperationException();
 		/*
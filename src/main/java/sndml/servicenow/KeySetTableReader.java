@@ -2,6 +2,18 @@ package sndml.servicenow;
 
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import sndml.agent.JobCancelledException;
 import sndml.util.Log;
@@ -16,10 +28,16 @@ public class KeySetTableReader extends TableReader {
 
 	protected final JsonTableAPI jsonAPI;
 	protected RecordKeySet allKeys;
+	protected int batchSlices;
+	protected int asyncSlices;
+	protected int threads = 1;
+	private volatile boolean batchAvailable = true;
 
 	public KeySetTableReader(Table table) {
 		super(table);
 		jsonAPI = table.json();
+		batchSlices = table.getSession().getBatchSlices();
+		asyncSlices = table.getSession().getAsyncSlices();
 	}
 
 
@@ -55,6 +73,42 @@ public class KeySetTableReader extends TableReader {
 		return allKeys.size();
 	}
 		
+	/**
+	 * Number of slices to read with a single {@link BatchRequest}.
+	 * If less than 2 then each slice is read with a separate JSONv2 request.
+	 * The default is the <b>batch_slices</b> property of the session.
+	 */
+	public KeySetTableReader setBatchSlices(int slices) {
+		if (slices < 0) throw new IllegalArgumentException("batchSlices=" + slices);
+		this.batchSlices = slices;
+		return this;
+	}
+	
+	/**
+	 * Number of slices to request at the same time using the non-blocking client
+	 * from {@link Session#getAsyncClient()}. Only used if there is a single thread
+	 * and each slice is read with a separate JSONv2 request.
+	 * If less than 2 then the slices are read one at a time.
+	 * The default is the <b>async_slices</b> property of the session.
+	 */
+	public KeySetTableReader setAsyncSlices(int slices) {
+		if (slices < 0) throw new IllegalArgumentException("asyncSlices=" + slices);
+		this.asyncSlices = slices;
+		return this;
+	}
+	
+	/**
+	 * Number of threads used to read slices. 
+	 * If greater than 1 then each thread reads slices using its own {@link Session},
+	 * and the records are passed to the writer on the calling thread.
+	 */
+	public KeySetTableReader setThreads(int threads) {
+		if (initialized) throw new IllegalStateException();
+		if (threads < 1) throw new IllegalArgumentException("threads=" + threads);
+		this.threads = threads;
+		return this;
+	}
+	
 	@Override
 	public Metrics call() throws IOException, SQLException, InterruptedException, JobCancelledException {
 		progress.logStart();
@@ -62,28 +116,197 @@ public class KeySetTableReader extends TableReader {
 		if (writer == null) throw new IllegalStateException("writer not defined");
 		if (allKeys == null) throw new IllegalStateException("not initialized");
 		if (pageSize <= 0) throw new IllegalStateException("invalid pageSize");
-		int fromIndex = 0;
 		int totalRows = allKeys.size();
-		int rowCount = 0;
+		// Divide the keys into slices, and the slices into groups which are read together
+		int slicesPerRequest = batchSlices > 1 ? batchSlices : 1;
+		List<List<RecordKeySet>> groups = new ArrayList<List<RecordKeySet>>();
+		int sliceCount = 0;
+		int fromIndex = 0;
 		while (fromIndex < totalRows) {
-			int toIndex = fromIndex + pageSize;
-			if (toIndex > totalRows) toIndex = totalRows;
-			RecordKeySet slice = allKeys.getSlice(fromIndex, toIndex);
-			EncodedQuery sliceQuery = new EncodedQuery(table, slice);
-			Parameters params = new Parameters();
-			if (this.viewName != null) params.add("sysparm_view", this.viewName);
-			if (this.displayValue) params.add("displayvalue", "all");
-			params.add("sysparm_query", sliceQuery.toString());
-			RecordList recs = jsonAPI.getRecords(params);
-			incrementInput(recs.size());			
-			writer.processRecords(recs, metrics, progress);
-			rowCount += recs.size();
-			logger.debug(String.format("processed %d / %d rows", rowCount, totalRows));
-			if (maxRows != null && rowCount > maxRows)
-				throw new TooManyRowsException(table, maxRows, rowCount);
-			fromIndex += pageSize;
+			List<RecordKeySet> group = new ArrayList<RecordKeySet>(slicesPerRequest);
+			while (group.size() < slicesPerRequest && fromIndex < totalRows) {
+				int toIndex = fromIndex + pageSize;
+				if (toIndex > totalRows) toIndex = totalRows;
+				group.add(allKeys.getSlice(fromIndex, toIndex));
+				fromIndex = toIndex;
+			}
+			groups.add(group);
+			sliceCount += group.size();
+		}
+		int workers = Math.min(threads, groups.size());
+		if (workers > 1) {
+			callConcurrent(groups, sliceCount, workers);
+		}
+		else if (asyncSlices > 1 && slicesPerRequest == 1) {
+			callAsync(groups, sliceCount);
+		}
+		else {
+			int rowCount = 0;
+			for (List<RecordKeySet> group : groups) {
+				for (RecordList recs : getSlices(table, group)) {
+					rowCount = processSlice(recs, rowCount);
+				}
+			}
 		}
 		return metrics;
 	}
+	
+	private int processSlice(RecordList recs, int rowCount) 
+			throws IOException, SQLException, JobCancelledException {
+		incrementInput(recs.size());			
+		writer.processRecords(recs, metrics, progress);
+		rowCount += recs.size();
+		logger.debug(String.format("processed %d / %d rows", rowCount, allKeys.size()));
+		if (maxRows != null && rowCount > maxRows)
+			throw new TooManyRowsException(table, maxRows, rowCount);
+		return rowCount;
+	}
+	
+	/**
+	 * Read the slices using the non-blocking client, keeping up to {@link #asyncSlices}
+	 * requests in flight without holding a thread for each of them.
+	 * The records are passed to the writer on this thread in the order of the slices.
+	 */
+	private void callAsync(List<List<RecordKeySet>> groups, int sliceCount) 
+			throws IOException, SQLException, InterruptedException, JobCancelledException {
+		List<RecordKeySet> slices = new ArrayList<RecordKeySet>(sliceCount);
+		for (List<RecordKeySet> group : groups) slices.addAll(group);
+		logger.debug(Log.PROCESS, String.format("async=%d slices=%d", asyncSlices, sliceCount));
+		ArrayDeque<CompletableFuture<RecordList>> pending = 
+			new ArrayDeque<CompletableFuture<RecordList>>(asyncSlices);
+		int next = 0;
+		int rowCount = 0;
+		try {
+			while (next < slices.size() || !pending.isEmpty()) {
+				while (next < slices.size() && pending.size() < asyncSlices) {
+					Parameters params = getSliceParameters(table, slices.get(next++));
+					pending.add(jsonAPI.getRecordsAsync(params));
+				}
+				RecordList recs = getResult(pending.remove());
+				rowCount = processSlice(recs, rowCount);
+			}
+		}
+		finally {
+			for (CompletableFuture<RecordList> future : pending) future.cancel(true);
+		}
+	}
+	
+	/**
+	 * Read the groups of slices using several threads, each with its own {@link Session}.
+	 * Slices are passed to this thread through a bounded queue, 
+	 * so no more than two slices per thread are waiting to be written.
+	 */
+	private void callConcurrent(List<List<RecordKeySet>> groups, int sliceCount, int workers) 
+			throws IOException, SQLException, InterruptedException, JobCancelledException {
+		final BlockingQueue<RecordList> queue = new ArrayBlockingQueue<RecordList>(2 * workers);
+		final AtomicInteger nextGroup = new AtomicInteger(0);
+		final String jobContext = Log.getJobContext();
+		logger.debug(Log.PROCESS, String.format("threads=%d slices=%d", workers, sliceCount));
+		ExecutorService executor = Executors.newFixedThreadPool(workers);
+		List<Future<Integer>> fetchers = new ArrayList<Future<Integer>>(workers);
+		for (int i = 0; i < workers; ++i) {
+			fetchers.add(executor.submit(() -> {
+				Log.setTableContext(table, jobContext);
+				Session session = table.getSession().duplicate();
+				try {
+					Table sessionTable = session.table(table.getName());
+					int fetched = 0;
+					int index;
+					while ((index = nextGroup.getAndIncrement()) < groups.size()) {
+						for (RecordList recs : getSlices(sessionTable, groups.get(index))) {
+							queue.put(recs);
+							fetched += recs.size();
+						}
+					}
+					return fetched;
+				}
+				finally {
+					session.close();
+				}
+			}));
+		}
+		executor.shutdown();
+		int rowCount = 0;
+		int received = 0;
+		try {
+			while (received < sliceCount) {
+				RecordList recs = queue.poll(1, TimeUnit.SECONDS);
+				if (recs == null) {
+					// Nothing available; if a fetcher died then rethrow its exception
+					for (Future<Integer> fetcher : fetchers) 
+						if (fetcher.isDone()) getResult(fetcher);
+					continue;
+				}
+				received += 1;
+				rowCount = processSlice(recs, rowCount);
+			}
+			for (Future<Integer> fetcher : fetchers) getResult(fetcher);
+		}
+		finally {
+			for (Future<Integer> fetcher : fetchers) 
+				if (!fetcher.isDone()) fetcher.cancel(true);
+		}
+	}
+	
+	private static <T> T getResult(Future<T> future) 
+			throws IOException, InterruptedException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) throw (IOException) cause;
+			if (cause instanceof InterruptedException) throw (InterruptedException) cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			throw new ServiceNowError(cause);
+		}
+	}
+	
+	/**
+	 * Read the records for one or more slices.
+	 * If there is more than one slice then they are read with a single {@link BatchRequest}
+	 * using the REST Table API. If the Batch API fails then each slice is read
+	 * with a separate JSONv2 request, and the Batch API is not used again by this reader.
+	 */
+	private List<RecordList> getSlices(Table table, List<RecordKeySet> slices) throws IOException {
+		if (batchAvailable && slices.size() > 1) {
+			List<Parameters> pages = new ArrayList<Parameters>(slices.size());
+			for (RecordKeySet slice : slices) {
+				Parameters params = new Parameters();
+				params.add("sysparm_query", new EncodedQuery(table, slice).toString());
+				params.add("sysparm_limit", Integer.toString(slice.size()));
+				params.add("sysparm_exclude_reference_link", "true");
+				params.add("sysparm_display_value", displayValue ? "all" : "false");
+				if (fieldNames != null) params.add("sysparm_fields", fieldNames.addKey().toString());
+				if (viewName != null) params.add("sysparm_view", viewName);
+				pages.add(params);
+			}
+			try {
+				List<RecordList> result = table.rest().getRecords(pages);
+				logger.debug(Log.RESPONSE, String.format("batch of %d slices", slices.size()));
+				return result;
+			}
+			catch (ServiceNowException | JsonResponseError e) {
+				logger.warn(Log.PROCESS, "batch request failed: " + e.getMessage());
+				batchAvailable = false;
+			}
+		}
+		List<RecordList> result = new ArrayList<RecordList>(slices.size());
+		for (RecordKeySet slice : slices) {
+			result.add(table.json().getRecords(getSliceParameters(table, slice)));
+		}
+		return result;
+	}
+	
+	/**
+	 * Parameters to read one slice with a JSONv2 request.
+	 */
+	private Parameters getSliceParameters(Table table, RecordKeySet slice) {
+		EncodedQuery sliceQuery = new EncodedQuery(table, slice);
+		Parameters params = new Parameters();
+		if (this.viewName != null) params.add("sysparm_view", this.viewName);
+		if (this.displayValue) params.add("displayvalue", "all");
+		params.add("sysparm_query", sliceQuery.toString());
+		return params;
+	}
 
 }
@@ -0,0 +1,37 @@
+package sndml.servicenow;
+
+import java.io.IOException;
+import java.sql.SQLException;
+
+import sndml.agent.JobCancelledException;
+
+import sndml.util.KeyPartition;
+
+/**
+ * Allows a running {@link RestTableReader} to give part of its remaining 
+ * <code>sys_id</code> range to another thread.
+ * The reader calls {@link #wantSplit(TableReader, int)} between pages.
+ * If the answer is yes, the reader passes the upper half of its remaining range
+ * to {@link #split(TableReader, KeyPartition)}, and if the split is made
+ * then it narrows its own key range.
+ */
+public interface KeySplitter {
+
+	/**
+	 * Return true if the reader should split.
+	 * 
+	 * @param reader The running reader
+	 * @param remainingRows Number of rows which the reader expects to still process
+	 */
+	boolean wantSplit(TableReader reader, int remainingRows);
+
+	/**
+	 * Start a new reader for the keys in the remainder.
+	 * 
+	 * @return The number of rows expected by the new reader,
+	 * or -1 if no reader was started and the reader must keep the remainder
+	 */
+	int split(TableReader reader, KeyPartition remainder) 
+		throws IOException, SQLException, InterruptedException, JobCancelledException;
+
+}
@@ -0,0 +1,222 @@
+package sndml.servicenow;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import sndml.util.Log;
+
+/**
+ * <p>Saves {@link TableSchema} definitions and {@link TableWSDL} field lists
+ * in a directory so that they can be reused by later runs.
+ * There is one file for each table in a subdirectory for each instance.</p>
+ *
+ * <p>Each file contains the names of the tables in the hierarchy
+ * (the table and its ancestors) and a version which is obtained with a single
+ * Stats API call: the number of <code>sys_dictionary</code> records for the hierarchy
+ * and the maximum <code>sys_updated_on</code>.
+ * The first time that a table is used by a process, the version is obtained again.
+ * If it has changed then the file is discarded and the metadata is read from the instance.</p>
+ */
+public class MetadataCache {
+
+	static final ObjectMapper mapper = new ObjectMapper();
+
+	final Session session;
+	final File directory;
+	// current version of each table, obtained once per process
+	private final Map<String, String> versions = new HashMap<String, String>();
+
+	final private Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	public MetadataCache(Session session, File directory) {
+		this.session = session;
+		this.directory = new File(directory, session.getInstance().getURL().getHost());
+	}
+
+	public File getDirectory() {
+		return this.directory;
+	}
+
+	File getFile(String tablename) {
+		return new File(directory, tablename + ".json");
+	}
+
+	/**
+	 * Return the cached schema for a table, or null if it is not cached or has changed.
+	 */
+	public synchronized TableSchema getSchema(Table table) throws IOException {
+		ObjectNode entry = load(table.getName());
+		if (entry == null || !entry.has("schema")) return null;
+		TableSchema schema = new TableSchema(table);
+		for (JsonNode field : entry.get("schema")) {
+			JsonNode length = field.get("length");
+			JsonNode reference = field.get("reference");
+			schema.addField(
+				field.get("name").asText(),
+				field.get("type").asText(),
+				length == null || length.isNull() ? null : length.asInt(),
+				reference == null || reference.isNull() ? null : reference.asText());
+		}
+		logger.debug(Log.SCHEMA, String.format(
+			"loaded %s schema fields=%d", table.getName(), schema.numFields()));
+		return schema;
+	}
+
+	/**
+	 * Save the schema for a table.
+	 *
+	 * @param hierarchy The names of the table and its ancestors
+	 */
+	public synchronized void putSchema(TableSchema schema, List<String> hierarchy) throws IOException {
+		String tablename = schema.table.getName();
+		ObjectNode entry = entryForUpdate(tablename, hierarchy);
+		ArrayNode fields = entry.putArray("schema");
+		for (FieldDefinition fd : schema.getFieldDefinitions()) {
+			ObjectNode field = fields.addObject();
+			field.put("name", fd.getName());
+			field.put("type", fd.getType());
+			field.put("length", fd.getMaxLength());
+			field.put("reference", fd.getReference());
+		}
+		save(tablename, entry);
+	}
+
+	/**
+	 * Return the cached WSDL field lists for a table, or null if they are not cached or have changed.
+	 */
+	public synchronized TableWSDL getWSDL(String tablename) throws IOException {
+		ObjectNode entry = load(tablename);
+		if (entry == null || !entry.has("wsdl")) return null;
+		JsonNode wsdl = entry.get("wsdl");
+		logger.debug(Log.WSDL, "loaded " + tablename + " WSDL");
+		return new TableWSDL(tablename, session.getURI(tablename + ".do?WSDL"),
+			toMap(wsdl.get("read")), toMap(wsdl.get("write")));
+	}
+
+	/**
+	 * Save the WSDL field lists for a table.
+	 * If the hierarchy for the table is not already known then it is read from the instance.
+	 */
+	public synchronized void putWSDL(TableWSDL wsdl) throws IOException {
+		String tablename = wsdl.tablename;
+		ObjectNode entry = entryForUpdate(tablename, null);
+		ObjectNode node = entry.putObject("wsdl");
+		node.set("read", toObject(wsdl.getReadFieldTypes()));
+		node.set("write", toObject(wsdl.getWriteFieldTypes()));
+		save(tablename, entry);
+	}
+
+	/**
+	 * Read the file for a table and return it if it is current.
+	 * If the version has changed then delete the file and return null.
+	 */
+	private ObjectNode load(String tablename) throws IOException {
+		File file = getFile(tablename);
+		if (!file.exists()) return null;
+		ObjectNode entry;
+		try {
+			entry = (ObjectNode) mapper.readTree(file);
+		}
+		catch (IOException | ClassCastException e) {
+			logger.warn(Log.INIT, "unable to read " + file.getPath() + ": " + e.getMessage());
+			return null;
+		}
+		List<String> hierarchy = getHierarchy(entry);
+		String version = getVersion(tablename, hierarchy);
+		if (version.equals(entry.path("version").asText())) return entry;
+		logger.info(Log.SCHEMA, String.format("%s has changed; refreshing %s", tablename, file.getPath()));
+		if (!file.delete()) logger.warn(Log.INIT, "unable to delete " + file.getPath());
+		return null;
+	}
+
+	/**
+	 * Return the current file for a table if there is one, otherwise a new entry.
+	 */
+	private ObjectNode entryForUpdate(String tablename, List<String> hierarchy) throws IOException {
+		ObjectNode entry = load(tablename);
+		if (entry != null) return entry;
+		if (hierarchy == null) hierarchy = new TableSchemaReader(session).getHierarchy(tablename);
+		entry = mapper.createObjectNode();
+		entry.put("table", tablename);
+		ArrayNode names = entry.putArray("hierarchy");
+		for (String name : hierarchy) names.add(name);
+		entry.put("version", getVersion(tablename, hierarchy));
+		return entry;
+	}
+
+	private static List<String> getHierarchy(ObjectNode entry) {
+		List<String> result = new ArrayList<String>();
+		for (JsonNode name : entry.path("hierarchy")) result.add(name.asText());
+		return result;
+	}
+
+	/**
+	 * Return a string which changes if any dictionary entry for the hierarchy
+	 * is inserted, updated or deleted.
+	 * The value is only read from the instance once per table.
+	 */
+	String getVersion(String tablename, List<String> hierarchy) throws IOException {
+		String version = versions.get(tablename);
+		if (version != null) return version;
+		EncodedQuery query = new EncodedQuery(session.table("sys_dictionary")).
+			addQuery("name", EncodedQuery.IN, String.join(",", hierarchy));
+		TableStats stats = session.table("sys_dictionary").rest().getUpdatedStats(query);
+		version = String.format("%d/%s", stats.getCount(), stats.getMaxUpdated());
+		versions.put(tablename, version);
+		return version;
+	}
+
+	/**
+	 * Write the file. A temporary file is written and then renamed
+	 * so that another process never reads a partially written file.
+	 */
+	private void save(String tablename, ObjectNode entry) throws IOException {
+		if (!directory.exists() && !directory.mkdirs())
+			throw new IOException("unable to create " + directory.getPath());
+		File file = getFile(tablename);
+		File temp = File.createTempFile(tablename, ".tmp", directory);
+		try {
+			mapper.writerWithDefaultPrettyPrinter().writeValue(temp, entry);
+			Files.move(temp.toPath(), file.toPath(),
+				StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally {
+			temp.delete();
+		}
+		logger.debug(Log.SCHEMA, "saved " + file.getPath());
+	}
+
+	private static LinkedHashMap<String, String> toMap(JsonNode node) {
+		LinkedHashMap<String, String> result = new LinkedHashMap<String, String>();
+		Iterator<Map.Entry<String, JsonNode>> iter = node.fields();
+		while (iter.hasNext()) {
+			Map.Entry<String, JsonNode> field = iter.next();
+			result.put(field.getKey(), field.getValue().isNull() ? null : field.getValue().asText());
+		}
+		return result;
+	}
+
+	private static ObjectNode toObject(Map<String, String> map) {
+		ObjectNode result = mapper.createObjectNode();
+		for (Map.Entry<String, String> field : map.entrySet())
+			result.put(field.getKey(), field.getValue());
+		return result;
+	}
+
+}
@@ -0,0 +1,94 @@
+package sndml.servicenow;
+
+import org.slf4j.Logger;
+
+import sndml.util.Log;
+
+/**
+ * <p>Adjusts the page size (<code>sysparm_limit</code>) of a {@link RestTableReader}
+ * based on the response time and size of each page.</p>
+ *
+ * <p>After each page the time per row and bytes per row are used to estimate
+ * the number of rows which would fit within the target response time
+ * and the target response size. The next page size moves toward the smaller
+ * of the two estimates, but will never grow or shrink by more than a factor of two
+ * in a single step, and will always be between the minimum and maximum.</p>
+ */
+public class PageSizeController {
+
+	final int minSize;
+	final int maxSize;
+	final long targetMillis;
+	final long targetBytes;
+	private int pageSize;
+
+	final private Logger logger = Log.getLogger(this.getClass());
+
+	/**
+	 * @param initialSize Size of the first page
+	 * @param minSize Minimum page size
+	 * @param maxSize Maximum page size
+	 * @param targetMillis Target response time in milliseconds
+	 * @param targetBytes Target response size in bytes
+	 */
+	public PageSizeController(int initialSize, int minSize, int maxSize, long targetMillis, long targetBytes) {
+		if (minSize < 1 || maxSize < minSize)
+			throw new IllegalArgumentException(
+				String.format("invalid page size limits min=%d max=%d", minSize, maxSize));
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.targetMillis = targetMillis;
+		this.targetBytes = targetBytes;
+		this.pageSize = clamp(initialSize);
+	}
+
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	public int getMinSize() {
+		return minSize;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	private int clamp(long size) {
+		if (size < minSize) return minSize;
+		if (size > maxSize) return maxSize;
+		return (int) size;
+	}
+
+	/**
+	 * Record the statistics for a page and return the size of the next page.
+	 *
+	 * @param rows Number of rows returned
+	 * @param millis Response time in milliseconds
+	 * @param bytes Size of the response in bytes, or zero if not known
+	 * @return Size of the next page
+	 */
+	public int update(int rows, long millis, long bytes) {
+		if (rows == 0) return pageSize;
+		double estimate = Double.MAX_VALUE;
+		if (millis > 0 && targetMillis > 0)
+			estimate = Math.min(estimate, (double) targetMillis * rows / millis);
+		if (bytes > 0 && targetBytes > 0)
+			estimate = Math.min(estimate, (double) targetBytes * rows / bytes);
+		if (estimate == Double.MAX_VALUE) return pageSize;
+		// A short final page tells us nothing about whether a larger page would fit
+		if (rows < pageSize && estimate > pageSize) return pageSize;
+		long next = Math.round(estimate);
+		next = Math.min(next, 2L * pageSize);
+		next = Math.max(next, pageSize / 2);
+		int newSize = clamp(next);
+		if (newSize != pageSize) {
+			logger.debug(Log.PROCESS, String.format(
+				"pagesize %d -> %d (rows=%d millis=%d bytes=%d)",
+				pageSize, newSize, rows, millis, bytes));
+		}
+		pageSize = newSize;
+		return pageSize;
+	}
+
+}
@@ -0,0 +1,130 @@
+package sndml.servicenow;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import sndml.util.Metrics;
+
+/**
+ * <p>An {@link Iterator} which decodes records one at a time from a response
+ * as they are consumed, rather than materializing the complete response in memory.</p>
+ *
+ * <p>The stream keeps track of the number of records returned so far
+ * and the highest <code>sys_id</code> that has been seen,
+ * so that a {@link TableReader} can continue keyset pagination
+ * after the records have been passed to a {@link RecordWriter}.</p>
+ *
+ * <p>The stream must be closed to release the underlying HTTP connection.</p>
+ */
+public abstract class RecordStream implements Iterator<TableRecord>, Closeable {
+
+	protected final Table table;
+	private TableRecord nextRec = null;
+	private boolean finished = false;
+	private int count = 0;
+	private RecordKey maxKey = null;
+	private Metrics inputMetrics = null;
+
+	protected RecordStream(Table table) {
+		this.table = table;
+	}
+
+	public Table getTable() {
+		return this.table;
+	}
+
+	/**
+	 * If specified, then the input count of these {@link Metrics}
+	 * will be incremented as each record is returned.
+	 */
+	public RecordStream setInputMetrics(Metrics metrics) {
+		this.inputMetrics = metrics;
+		return this;
+	}
+
+	/**
+	 * Decode the next record from the underlying response.
+	 * @return the next record or null if there are no more records
+	 */
+	protected abstract TableRecord readNext() throws IOException;
+
+	@Override
+	public boolean hasNext() {
+		if (finished) return false;
+		if (nextRec == null) {
+			try {
+				nextRec = readNext();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			if (nextRec == null) finished = true;
+		}
+		return !finished;
+	}
+
+	@Override
+	public TableRecord next() throws NoSuchElementException {
+		if (!hasNext()) throw new NoSuchElementException();
+		TableRecord rec = nextRec;
+		nextRec = null;
+		count += 1;
+		RecordKey key = rec.getKey();
+		if (key.greaterThan(maxKey)) maxKey = key;
+		if (inputMetrics != null) inputMetrics.incrementInput();
+		return rec;
+	}
+
+	/**
+	 * Return the number of records returned so far.
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Return the number of bytes read from the response so far, or zero if not known.
+	 */
+	public long getBytesRead() {
+		return 0;
+	}
+
+	/**
+	 * Return the highest sys_id returned so far, or null if no records have been returned.
+	 */
+	public RecordKey maxKey() {
+		return maxKey;
+	}
+
+	/**
+	 * Return a stream which contains no records.
+	 */
+	public static RecordStream empty(Table table) {
+		return new RecordStream(table) {
+			@Override
+			protected TableRecord readNext() {
+				return null;
+			}
+			@Override
+			public void close() {
+			}
+		};
+	}
+
+	/**
+	 * Read all remaining records into a {@link RecordList}.
+	 */
+	public RecordList readAll() throws IOException {
+		RecordList result = new RecordList(table);
+		try {
+			while (hasNext()) result.add(next());
+		}
+		catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		return result;
+	}
+
+}
@@ -23,6 +23,18 @@ public abstract class RecordWriter {
 			RecordList recs, Metrics metrics, ProgressLogger progressLogger) 
 		throws JobCancelledException, IOException, SQLException;	
 
+	/**
+	 * Process records as they are decoded from a {@link RecordStream}.
+	 * The default implementation reads the complete stream into a {@link RecordList}.
+	 * Subclasses which can write one record at a time should override this method.
+	 */
+	public void processRecords(
+			RecordStream stream, Metrics metrics, ProgressLogger progressLogger)
+		throws JobCancelledException, IOException, SQLException {
+		RecordList recs = stream.readAll();
+		processRecords(recs, metrics, progressLogger);
+	}
+
 	public RecordWriter open(Metrics metrics) throws IOException, SQLException {
 		metrics.start();
 		return this;
@@ -0,0 +1,215 @@
+package sndml.servicenow;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+
+import sndml.util.Log;
+import sndml.util.Parameters;
+
+/**
+ * <p>Obtains the display values of reference fields without requesting
+ * <code>sysparm_display_value=all</code> for every record.</p>
+ *
+ * <p>For each page of records, the distinct <code>sys_id</code> values of each
+ * reference field are collected. Values which are not already in the cache are
+ * read from the referenced table with a <code>sys_idIN</code> query,
+ * {@link #BATCH_SIZE} at a time, returning only the display field.
+ * The display values are held in a size-bounded least-recently-used cache
+ * which is shared by all of the pages and partitions that use this resolver.</p>
+ *
+ * <p>The display field of a referenced table is the dictionary entry
+ * marked as <b>display</b> in the table or its nearest ancestor.
+ * If there is none then <code>name</code> or <code>number</code> is used.</p>
+ */
+public class ReferenceResolver {
+
+	/**
+	 * Maximum number of keys in a single request.
+	 */
+	public static final int BATCH_SIZE = 100;
+
+	private final int cacheSize;
+	private final LruCache cache;
+	// display field of each referenced table; the value is null if the table has no display field
+	private final Map<String, String> displayFields = new HashMap<String, String>();
+	private long hits = 0;
+	private long misses = 0;
+
+	final private Logger logger = Log.getLogger(this.getClass());
+
+	@SuppressWarnings("serial")
+	private static class LruCache extends LinkedHashMap<String, String> {
+		final int maxSize;
+
+		LruCache(int maxSize) {
+			super(16, 0.75f, true);
+			this.maxSize = maxSize;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+			return size() > maxSize;
+		}
+	}
+
+	/**
+	 * @param cacheSize Maximum number of display values to retain
+	 */
+	public ReferenceResolver(int cacheSize) {
+		this.cacheSize = Math.max(cacheSize, BATCH_SIZE);
+		this.cache = new LruCache(this.cacheSize);
+	}
+
+	public int getCacheSize() {
+		return this.cacheSize;
+	}
+
+	public synchronized long getHits() {
+		return this.hits;
+	}
+
+	public synchronized long getMisses() {
+		return this.misses;
+	}
+
+	private static String cacheKey(String tablename, String key) {
+		return tablename + ":" + key;
+	}
+
+	/**
+	 * Return a copy of the records with the display values of the reference fields.
+	 * The display value of a field is available from {@link TableRecord#getDisplayValue(String)}
+	 * or as <code>dv_</code> followed by the field name.
+	 *
+	 * @param recs Records to be resolved
+	 * @param references Reference fields to be resolved, with the name of the referenced table
+	 */
+	public RecordList resolve(RecordList recs, Map<String, String> references) throws IOException {
+		if (recs.isEmpty() || references.isEmpty()) return recs;
+		Session session = recs.get(0).getTable().getSession();
+		// display values for this page, indexed by cache key
+		Map<String, String> values = new HashMap<String, String>();
+		// keys which must be read, by referenced table
+		Map<String, Set<String>> missing = new LinkedHashMap<String, Set<String>>();
+		synchronized (this) {
+			for (TableRecord rec : recs) {
+				for (Map.Entry<String, String> ref : references.entrySet()) {
+					String key = rec.getValue(ref.getKey());
+					if (key == null) continue;
+					String ckey = cacheKey(ref.getValue(), key);
+					if (values.containsKey(ckey)) continue;
+					if (cache.containsKey(ckey)) {
+						values.put(ckey, cache.get(ckey));
+						hits += 1;
+					}
+					else {
+						Set<String> keys = missing.get(ref.getValue());
+						if (keys == null) {
+							keys = new LinkedHashSet<String>();
+							missing.put(ref.getValue(), keys);
+						}
+						if (keys.add(key)) misses += 1;
+					}
+				}
+			}
+		}
+		for (Map.Entry<String, Set<String>> entry : missing.entrySet()) {
+			String tablename = entry.getKey();
+			List<String> keys = new ArrayList<String>(entry.getValue());
+			for (int start = 0; start < keys.size(); start += BATCH_SIZE) {
+				List<String> slice = keys.subList(start, Math.min(start + BATCH_SIZE, keys.size()));
+				Map<String, String> fetched = fetch(session, tablename, slice);
+				synchronized (this) {
+					for (String key : slice) {
+						String ckey = cacheKey(tablename, key);
+						String value = fetched.get(key);
+						values.put(ckey, value);
+						cache.put(ckey, value);
+					}
+				}
+			}
+		}
+		RecordList result = new RecordList(recs.table, recs.size());
+		for (TableRecord rec : recs) {
+			Map<String, String> displayValues = new HashMap<String, String>();
+			for (Map.Entry<String, String> ref : references.entrySet()) {
+				String key = rec.getValue(ref.getKey());
+				displayValues.put(ref.getKey(),
+					key == null ? null : values.get(cacheKey(ref.getValue(), key)));
+			}
+			result.add(new ResolvedRecord(rec, displayValues));
+		}
+		return result;
+	}
+
+	/**
+	 * Read the display values for a list of keys.
+	 * Keys which are not found (e.g. because the referenced record was deleted) are omitted.
+	 */
+	private Map<String, String> fetch(Session session, String tablename, List<String> keys)
+			throws IOException {
+		Map<String, String> result = new HashMap<String, String>();
+		String displayField = getDisplayField(session, tablename);
+		if (displayField == null) return result;
+		Table table = session.table(tablename);
+		Parameters params = new Parameters();
+		params.add("sysparm_query",
+			new EncodedQuery(table).addQuery("sys_id", EncodedQuery.IN, String.join(",", keys)).toString());
+		params.add("sysparm_fields", "sys_id," + displayField);
+		params.add("sysparm_display_value", "true");
+		params.add("sysparm_exclude_reference_link", "true");
+		params.add("sysparm_limit", Integer.toString(keys.size()));
+		RecordList recs = table.rest().getRecords(params);
+		for (TableRecord rec : recs) {
+			result.put(rec.getValue("sys_id"), rec.getValue(displayField));
+		}
+		logger.debug(Log.RESPONSE, String.format(
+			"resolved %d of %d %s references", recs.size(), keys.size(), tablename));
+		return result;
+	}
+
+	/**
+	 * Return the name of the display field for a table, or null if there is none.
+	 */
+	String getDisplayField(Session session, String tablename) throws IOException {
+		synchronized (displayFields) {
+			if (displayFields.containsKey(tablename)) return displayFields.get(tablename);
+		}
+		List<String> hierarchy = new TableSchemaReader(session).getHierarchy(tablename);
+		Table dictionary = session.table("sys_dictionary");
+		EncodedQuery query = new EncodedQuery(dictionary).
+			addQuery("name", EncodedQuery.IN, String.join(",", hierarchy)).
+			addQuery("display=true^ORelementINname,number");
+		Parameters params = new Parameters();
+		params.add("sysparm_query", query.toString());
+		params.add("sysparm_fields", "name,element,display");
+		RecordList recs = dictionary.rest().getRecords(params);
+		String result = null;
+		for (String candidate : new String[] {"display", "name", "number"}) {
+			// the nearest table in the hierarchy takes precedence
+			for (String name : hierarchy) {
+				for (TableRecord rec : recs) {
+					if (!name.equals(rec.getValue("name"))) continue;
+					boolean match = candidate.equals("display") ?
+						"true".equals(rec.getValue("display")) :
+						candidate.equals(rec.getValue("element"));
+					if (match && result == null) result = rec.getValue("element");
+				}
+			}
+		}
+		logger.info(Log.SCHEMA, String.format("%s display field is %s", tablename, result));
+		synchronized (displayFields) {
+			displayFields.put(tablename, result);
+		}
+		return result;
+	}
+
+}
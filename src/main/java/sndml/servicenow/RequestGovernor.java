@@ -0,0 +1,196 @@
+package sndml.servicenow;
+
+import java.io.InterruptedIOException;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.http.Header;
+import org.apache.http.client.utils.DateUtils;
+import org.slf4j.Logger;
+
+import sndml.util.Log;
+import sndml.util.PropertySet;
+
+/**
+ * <p>Limits the number of concurrent requests and the request rate for a ServiceNow instance.
+ * A single governor is shared by every {@link Session} connected to the same instance,
+ * so that partition threads and agent workers are governed together.</p>
+ *
+ * <p>The concurrency limit is adjusted using AIMD (additive increase, multiplicative decrease).
+ * Each successful request raises the limit by a fraction of a request, up to
+ * <b>throttle_max_concurrency</b>. When the instance responds with HTTP 429 (Too Many Requests)
+ * or 503 (Service Unavailable) the limit is halved and all requests are paused
+ * until the time specified by the <code>Retry-After</code> header.
+ * The limit is halved at most once per throttle window: requests which were sent before
+ * the most recent decrease do not decrease it again when they are throttled.</p>
+ *
+ * <p>If <b>throttle_rate</b> is greater than zero then a token bucket is used
+ * to limit the number of requests per second.</p>
+ */
+public class RequestGovernor {
+
+	static final ConcurrentHashMap<String, RequestGovernor> governors =
+		new ConcurrentHashMap<String, RequestGovernor>();
+
+	final String name;
+	final int maxConcurrency; // zero means no limit
+	final double rate; // requests per second; zero means no limit
+	final int retryLimit;
+	final long retryMillis; // used if there is no Retry-After header
+	private double limit;
+	private int inFlight = 0;
+	private double tokens;
+	private long lastRefill;
+	private long pausedUntil = 0;
+	private int throttleCount = 0;
+	private long decreases = 0;
+
+	static final Logger logger = Log.getLogger(RequestGovernor.class);
+
+	RequestGovernor(String name, int maxConcurrency, double rate, int retryLimit, long retryMillis) {
+		this.name = name;
+		this.maxConcurrency = maxConcurrency;
+		this.rate = rate;
+		this.retryLimit = retryLimit;
+		this.retryMillis = retryMillis;
+		this.limit = maxConcurrency > 0 ? maxConcurrency : Integer.MAX_VALUE;
+		this.tokens = rate > 0 ? Math.max(1.0, rate) : 0;
+		this.lastRefill = System.currentTimeMillis();
+	}
+
+	/**
+	 * Return the governor for an instance, creating it if necessary.
+	 * If the governor already exists then the properties are ignored.
+	 */
+	static RequestGovernor forInstance(Instance instance, PropertySet propset) {
+		String key = instance.getURL().toString();
+		return governors.computeIfAbsent(key, k -> new RequestGovernor(k,
+			propset.getInt("throttle_max_concurrency"),
+			Double.parseDouble(propset.getProperty("throttle_rate")),
+			propset.getInt("throttle_retry_limit"),
+			propset.getInt("throttle_retry_seconds") * 1000L));
+	}
+
+	public int getRetryLimit() {
+		return retryLimit;
+	}
+
+	/**
+	 * Return the current concurrency limit.
+	 */
+	public synchronized int getLimit() {
+		return limit >= Integer.MAX_VALUE ? 0 : (int) Math.floor(limit);
+	}
+
+	/**
+	 * Return the number of throttled responses received since the governor was created.
+	 */
+	public synchronized int getThrottleCount() {
+		return throttleCount;
+	}
+
+	private void refill(long now) {
+		if (rate <= 0) return;
+		double capacity = Math.max(1.0, rate);
+		tokens = Math.min(capacity, tokens + (now - lastRefill) * rate / 1000.0);
+		lastRefill = now;
+	}
+
+	/**
+	 * Wait until a request can be sent. Every call must be followed by a call to
+	 * {@link #release()} or {@link #throttled(long, long)}.
+	 * 
+	 * @return A ticket which identifies the throttle window in which the request was sent
+	 */
+	public synchronized long acquire() throws InterruptedIOException {
+		try {
+			while (true) {
+				long now = System.currentTimeMillis();
+				if (now < pausedUntil) {
+					wait(pausedUntil - now);
+					continue;
+				}
+				if (inFlight >= Math.max(1, Math.floor(limit))) {
+					wait();
+					continue;
+				}
+				if (rate > 0) {
+					refill(now);
+					if (tokens < 1.0) {
+						wait(Math.max(1, (long) Math.ceil((1.0 - tokens) * 1000.0 / rate)));
+						continue;
+					}
+					tokens -= 1.0;
+				}
+				inFlight += 1;
+				return decreases;
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted waiting for " + name);
+		}
+	}
+
+	/**
+	 * A request completed without being throttled.
+	 */
+	public synchronized void release() {
+		assert inFlight > 0;
+		inFlight -= 1;
+		if (maxConcurrency <= 0 || limit < maxConcurrency) {
+			limit += 1.0 / limit;
+			if (maxConcurrency > 0 && limit > maxConcurrency) limit = maxConcurrency;
+		}
+		notifyAll();
+	}
+
+	/**
+	 * A request was throttled by the instance (HTTP 429 or 503).
+	 * Pause all requests, and reduce the concurrency limit unless it has already been
+	 * reduced since the request was sent.
+	 *
+	 * @param delayMillis Milliseconds to wait before the next request
+	 * @param ticket Value returned by {@link #acquire()} for the request
+	 */
+	public synchronized void throttled(long delayMillis, long ticket) {
+		assert inFlight > 0;
+		if (ticket == decreases) {
+			limit = Math.max(1.0, Math.min(limit, inFlight) / 2.0);
+			decreases += 1;
+		}
+		inFlight -= 1;
+		long resume = System.currentTimeMillis() + delayMillis;
+		if (resume > pausedUntil) pausedUntil = resume;
+		throttleCount += 1;
+		logger.warn(Log.RESPONSE, String.format(
+			"throttled by %s; concurrency limit=%d; pausing %d ms",
+			name, (int) Math.floor(limit), delayMillis));
+		notifyAll();
+	}
+
+	/**
+	 * Determine how long to wait before retrying a throttled request.
+	 * The <code>Retry-After</code> header may contain a number of seconds or an HTTP date.
+	 * If it is missing or cannot be parsed then the default delay is used,
+	 * doubled for each previous attempt.
+	 */
+	long getRetryAfterMillis(Header retryAfter, int attempt) {
+		long fallback = retryMillis * (1L << Math.min(attempt, 6));
+		if (retryAfter == null) return fallback;
+		return parseRetryAfter(retryAfter.getValue(), fallback);
+	}
+
+	static long parseRetryAfter(String value, long fallback) {
+		if (value == null) return fallback;
+		value = value.trim();
+		try {
+			return Math.max(0, Long.parseLong(value) * 1000L);
+		} catch (NumberFormatException e) {
+			Date date = DateUtils.parseDate(value);
+			if (date == null) return fallback;
+			return Math.max(0, date.getTime() - System.currentTimeMillis());
+		}
+	}
+
+}
@@ -0,0 +1,68 @@
+package sndml.servicenow;
+
+import java.util.Iterator;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import sndml.util.FieldNames;
+
+/**
+ * A record whose reference display values were obtained by a {@link ReferenceResolver}.
+ * The display value of a resolved field is returned by {@link #getDisplayValue(String)},
+ * or by {@link #getValue(String)} if the field name is prefixed with <code>dv_</code>.
+ * All other values are obtained from the original record.
+ */
+public class ResolvedRecord extends TableRecord {
+
+	final TableRecord rec;
+	final Map<String, String> displayValues;
+
+	ResolvedRecord(TableRecord rec, Map<String, String> displayValues) {
+		super(rec.getTable());
+		this.rec = rec;
+		this.displayValues = displayValues;
+	}
+
+	@Override
+	public String getValue(String fieldname) {
+		if (fieldname.startsWith("dv_")) {
+			String basename = fieldname.substring(3);
+			if (displayValues.containsKey(basename)) return displayValues.get(basename);
+		}
+		return rec.getValue(fieldname);
+	}
+
+	@Override
+	public String getDisplayValue(String fieldname) {
+		if (displayValues.containsKey(fieldname)) return displayValues.get(fieldname);
+		return rec.getDisplayValue(fieldname);
+	}
+
+	@Override
+	public Iterator<String> keys() {
+		return getFieldNames().iterator();
+	}
+
+	@Override
+	public FieldNames getFieldNames() {
+		FieldNames names = rec.getFieldNames();
+		for (String fieldname : displayValues.keySet()) names.add("dv_" + fieldname);
+		return names;
+	}
+
+	@Override
+	public String toString() {
+		return asText(false);
+	}
+
+	@Override
+	public String asText(boolean pretty) {
+		ObjectNode obj = JsonRequest.mapper.createObjectNode();
+		for (String fieldname : getFieldNames()) {
+			obj.put(fieldname, getValue(fieldname));
+		}
+		return pretty ? obj.toPrettyString() : obj.toString();
+	}
+
+}
@@ -2,6 +2,9 @@ package sndml.servicenow;
 
 import java.io.IOException;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
 import org.slf4j.Logger;
 
 import com.fasterxml.jackson.databind.JsonNode;
@@ -34,11 +37,25 @@ public class RestTableAPI extends TableAPI {
 	}
 		
 	public TableStats getStats(EncodedQuery filter, boolean includeDates) throws IOException {
+		return getStats(filter, includeDates ? "sys_created_on" : null);
+	}
+	
+	/**
+	 * Return the number of records matching the filter and, 
+	 * if dateField is not null, the range of the dateField.
+	 * The range is returned as {@link TableStats#getCreated()} if dateField is 
+	 * <code>sys_created_on</code>, or as {@link TableStats#getUpdated()} 
+	 * if dateField is <code>sys_updated_on</code>.
+	 */
+	public TableStats getStats(EncodedQuery filter, String dateField) throws IOException {
+		assert dateField == null || 
+			dateField.equals("sys_created_on") || dateField.equals("sys_updated_on");
 		Log.setMethodContext(table, "STATS");
 		TableStats tableStats = new TableStats();
 		Parameters params = new Parameters();
 		if (filter != null && !filter.isEmpty()) params.add("sysparm_query", filter.toString());
-		String aggregateFields = "sys_created_on";
+		boolean includeDates = (dateField != null);
+		String aggregateFields = dateField;
 		params.add("sysparm_count", "true");
 		if (includeDates) {
 			params.add("sysparm_min_fields", aggregateFields);
@@ -55,16 +72,25 @@ public class RestTableAPI extends TableAPI {
 		if (includeDates) {
 			JsonNode minValues = root.at("/result/stats/min");
 			JsonNode maxValues = root.at("/result/stats/max");
-			DateTime minCreated = DateTime.from(minValues.get("sys_created_on").asText());
-			DateTime maxCreated = DateTime.from(maxValues.get("sys_created_on").asText());
-			if (minCreated == null || maxCreated == null) 
+			DateTime minDate = DateTime.from(minValues.get(dateField).asText());
+			DateTime maxDate = DateTime.from(maxValues.get(dateField).asText());
+			if (minDate == null || maxDate == null) 
 				logger.warn(Log.PROCESS, String.format(
-					"getStats minCreated=%s maxCreated=%s filter=%s", 
-					minCreated, maxCreated, filter));
-			tableStats.created = new DateTimeRange(minCreated, maxCreated);
-			logger.info(Log.PROCESS, String.format(
-				"getStats count=%d createdRange=%s filter=%s", 
-				tableStats.count, tableStats.created, filter));	
+					"getStats min(%s)=%s max(%s)=%s filter=%s", 
+					dateField, minDate, dateField, maxDate, filter));
+			DateTimeRange range = new DateTimeRange(minDate, maxDate);
+			if (dateField.equals("sys_updated_on")) {
+				tableStats.updated = range;
+				logger.info(Log.PROCESS, String.format(
+					"getStats count=%d updatedRange=%s filter=%s", 
+					tableStats.count, tableStats.updated, filter));	
+			}
+			else {
+				tableStats.created = range;
+				logger.info(Log.PROCESS, String.format(
+					"getStats count=%d createdRange=%s filter=%s", 
+					tableStats.count, tableStats.created, filter));	
+			}
 		}
 		else {
 			logger.info(Log.PROCESS, String.format(
@@ -73,6 +99,97 @@ public class RestTableAPI extends TableAPI {
 		return tableStats;		
 	}
 	
+	/**
+	 * Return the number of records matching the filter and the maximum sys_updated_on.
+	 * If there are no records then the maximum sys_updated_on will be null.
+	 */
+	public TableStats getUpdatedStats(EncodedQuery filter) throws IOException {
+		Log.setMethodContext(table, "STATS");
+		Parameters params = new Parameters();
+		if (filter != null && !filter.isEmpty()) params.add("sysparm_query", filter.toString());
+		params.add("sysparm_count", "true");
+		params.add("sysparm_max_fields", "sys_updated_on");
+		URI uri = getURI("stats", null, params);
+		JsonRequest request = new JsonRequest(session, uri, HttpMethod.GET, null);
+		ObjectNode root = request.execute();
+		request.checkForInsufficientRights();
+		TableStats tableStats = new TableStats();
+		tableStats.count = root.at("/result/stats/count").asInt();
+		String maxUpdated = root.at("/result/stats/max/sys_updated_on").asText();
+		tableStats.maxUpdated = DateTime.from(maxUpdated);
+		logger.debug(Log.PROCESS, String.format(
+			"getUpdatedStats count=%d maxUpdated=%s filter=%s", 
+			tableStats.count, tableStats.maxUpdated, filter));
+		return tableStats;
+	}
+	
+	/**
+	 * Count the records matching each of several filters
+	 * using a single {@link BatchRequest} of Stats API calls.
+	 *
+	 * @return counts in the same order as the filters
+	 */
+	public int[] getCounts(List<EncodedQuery> filters) throws IOException {
+		Log.setMethodContext(table, "STATS");
+		BatchRequest batch = new BatchRequest(session);
+		for (EncodedQuery filter : filters) {
+			Parameters params = new Parameters();
+			if (filter != null && !filter.isEmpty()) params.add("sysparm_query", filter.toString());
+			params.add("sysparm_count", "true");
+			batch.add(getURI("stats", null, params));
+		}
+		List<ObjectNode> responses = batch.execute();
+		int[] result = new int[responses.size()];
+		int total = 0;
+		for (int i = 0; i < result.length; ++i) {
+			result[i] = responses.get(i).at("/result/stats/count").asInt();
+			total += result[i];
+		}
+		logger.info(Log.PROCESS, String.format(
+			"getCounts queries=%d total=%d", result.length, total));
+		return result;
+	}
+
+	/**
+	 * Obtain grouped aggregates for each of several filters
+	 * using a single {@link BatchRequest} of Stats API calls.
+	 * The aggregate parameters (<i>e.g.</i> <code>sysparm_group_by</code>
+	 * or <code>sysparm_sum_fields</code>) are the same for every filter.
+	 *
+	 * @return for each filter, an array with one element per group,
+	 * in the same order as the filters.
+	 * Each element contains <code>stats</code> and (if grouped) <code>groupby_fields</code>.
+	 */
+	public List<ArrayNode> getAggregates(List<EncodedQuery> filters, Parameters aggregates)
+			throws IOException {
+		Log.setMethodContext(table, "STATS");
+		BatchRequest batch = new BatchRequest(session);
+		for (EncodedQuery filter : filters) {
+			Parameters params = new Parameters(aggregates);
+			if (filter != null && !filter.isEmpty()) params.add("sysparm_query", filter.toString());
+			batch.add(getURI("stats", null, params));
+		}
+		List<ObjectNode> responses = batch.execute();
+		List<ArrayNode> result = new ArrayList<ArrayNode>(responses.size());
+		int groups = 0;
+		for (ObjectNode response : responses) {
+			JsonNode node = response.get("result");
+			ArrayNode array;
+			if (node != null && node.isArray())
+				array = (ArrayNode) node;
+			else {
+				// Without sysparm_group_by the result is a single object
+				array = response.arrayNode();
+				if (node != null && node.has("stats")) array.add(node);
+			}
+			groups += array.size();
+			result.add(array);
+		}
+		logger.info(Log.PROCESS, String.format(
+			"getAggregates queries=%d groups=%d", result.size(), groups));
+		return result;
+	}
+
 	public TableRecord getRecord(RecordKey key) throws IOException {
 		Log.setMethodContext(table, "GET");
 		URI uri = getURI("table", key, null);
@@ -111,6 +228,29 @@ public class RestTableAPI extends TableAPI {
 		return getRecords(params);
 	}
 	
+	/**
+	 * Return the current time according to the instance clock.
+	 * This is the <code>Date</code> header of a GET which matches no records.
+	 * If the response has no <code>Date</code> header then the local clock is used.
+	 */
+	public DateTime getInstanceTime() throws IOException {
+		Log.setMethodContext(table, "GET");
+		Parameters params = new Parameters();
+		params.add("sysparm_query", "sys_idISEMPTY");
+		params.add("sysparm_fields", "sys_id");
+		params.add("sysparm_limit", "1");
+		URI uri = getURI("table", null, params);
+		JsonRequest request = new JsonRequest(session, uri, HttpMethod.GET, null);
+		request.execute();
+		request.checkForInsufficientRights();
+		Date date = request.getResponseDate();
+		if (date == null) {
+			logger.warn(Log.PROCESS, "no Date header; using local clock");
+			return DateTime.now();
+		}
+		return new DateTime(date);
+	}
+
 	public RecordList getRecords(Parameters params) throws IOException {		
 		Log.setMethodContext(table, "GET");
 		URI uri = getURI("table", null, params);
@@ -122,6 +262,38 @@ public class RestTableAPI extends TableAPI {
 		return list;
 	}
 
+	/**
+	 * Read several pages of records using a single {@link BatchRequest}.
+	 *
+	 * @return a {@link RecordList} for each set of parameters, in the same order
+	 */
+	public List<RecordList> getRecords(List<Parameters> pages) throws IOException {
+		Log.setMethodContext(table, "GET");
+		BatchRequest batch = new BatchRequest(session);
+		for (Parameters params : pages) {
+			batch.add(getURI("table", null, params));
+		}
+		List<ObjectNode> responses = batch.execute();
+		List<RecordList> result = new ArrayList<RecordList>(responses.size());
+		for (ObjectNode root : responses) {
+			ArrayNode resultObj = (ArrayNode) root.get("result");
+			result.add(new RecordList(table, resultObj));
+		}
+		return result;
+	}
+
+	/**
+	 * Return a {@link RecordStream} which decodes the records
+	 * from the response as they are consumed.
+	 * The caller must close the stream.
+	 */
+	public RecordStream getRecordStream(Parameters params) throws IOException {
+		Log.setMethodContext(table, "GET");
+		URI uri = getURI("table", null, params);
+		JsonRequest request = new JsonRequest(session, uri, HttpMethod.GET, null);
+		return request.executeStream(table, "result");
+	}
+
 	public InsertResponse insertRecord(Parameters fields) throws IOException {
 		Log.setMethodContext(table, "POST");
 		URI uri = getURI("table", null, null);
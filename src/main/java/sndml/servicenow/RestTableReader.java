@@ -2,8 +2,16 @@ package sndml.servicenow;
 
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import sndml.agent.JobCancelledException;
+import sndml.util.KeyPartition;
 import sndml.util.Log;
 import sndml.util.Metrics;
 import sndml.util.Parameters;
@@ -36,8 +44,15 @@ public class RestTableReader extends TableReader {
 	final protected RestTableAPI restAPI;
 	protected boolean statsEnabled;
 	protected TableStats stats = null;
+	protected boolean streaming = true;
+	protected int prefetch = 0;
+	protected Checkpoint checkpoint = null;
+	protected RecordKey startKey = null;
+	protected Integer plannedCount = null;
+	protected KeySplitter splitter = null;
 	
 	private final int DEFAULT_PAGE_SIZE = 200;
+	public static final int MAX_PREFETCH = 3;
 		
 	public RestTableReader(Table table) {
 		super(table);
@@ -55,9 +70,73 @@ public class RestTableReader extends TableReader {
 		return this;
 	}
 	
+	/**
+	 * If true (the default) then each page is decoded from the response stream
+	 * and passed to the writer one record at a time.
+	 * If false then each page is read into a {@link RecordList}.
+	 */
+	public RestTableReader setStreaming(boolean value) {
+		this.streaming = value;
+		return this;
+	}
+	
+	/**
+	 * Number of pages to fetch ahead of the writer. 
+	 * If zero (the default) then pages are fetched and written serially.
+	 * If greater than zero, then the next page is requested on a background thread
+	 * while the current page is being written.
+	 */
+	public RestTableReader setPrefetch(int pages) {
+		if (initialized) throw new IllegalStateException();
+		if (pages < 0 || pages > MAX_PREFETCH)
+			throw new IllegalArgumentException("prefetch=" + pages);
+		this.prefetch = pages;
+		return this;
+	}
+	
+	/**
+	 * Report progress to a {@link Checkpoint} after each page.
+	 * If startKey is not null then the reader will resume after that key.
+	 */
+	public RestTableReader setCheckpoint(Checkpoint checkpoint, RecordKey startKey) {
+		if (initialized) throw new IllegalStateException();
+		this.checkpoint = checkpoint;
+		this.startKey = startKey;
+		// Exclude keys that have already been processed from the expected count
+		setKeyExclusion(startKey);
+		return this;
+	}
+	
+	/**
+	 * Allow the remaining keys to be split with another thread between pages.
+	 * Splitting is not done if prefetch or a checkpoint is used,
+	 * or if stats are disabled, because the number of remaining rows is not known.
+	 */
+	public RestTableReader setSplitter(KeySplitter splitter) {
+		this.splitter = splitter;
+		return this;
+	}
+	
+	/**
+	 * Use a row count which was obtained in advance 
+	 * (<i>e.g.</i> by a partition planner) instead of calling the Stats API during prepare.
+	 * The count is ignored if the reader is resuming from a checkpoint.
+	 */
+	public RestTableReader setPlannedCount(Integer count) {
+		if (initialized) throw new IllegalStateException();
+		this.plannedCount = count;
+		return this;
+	}
+	
 	public void prepare(RecordWriter writer, Metrics metrics, ProgressLogger progressLogger) 
 			throws IOException, InterruptedException  {
 		beginPrepare(writer, metrics, progressLogger);
+		if (statsEnabled && plannedCount != null && startKey == null) {
+			stats = new TableStats().setCount(plannedCount);
+			endPrepare(stats.getCount());
+			logger.debug(Log.INIT, String.format("planned expected=%d", getExpected()));
+			return;
+		}
 		EncodedQuery statsQuery = getStatsQuery();
 		logger.debug(Log.INIT, String.format(
 			"initialize statsEnabled=%b query=\"%s\"", statsEnabled, statsQuery));
@@ -77,8 +156,10 @@ public class RestTableReader extends TableReader {
 		assert writer != null;
 		assert metrics != null;
 		int rowCount = 0;
-		RecordKey maxKey = null;
+		RecordKey maxKey = startKey;
 		boolean finished = false;
+		if (startKey != null) 
+			logger.info(Log.PROCESS, String.format("resuming after %s", startKey));
 		if (statsEnabled && stats.count == 0) {
 			finished = true;
 			logger.debug(Log.PROCESS, "expecting 0 rows; bypassing query");
@@ -86,34 +167,60 @@ public class RestTableReader extends TableReader {
 		int offset = 0;
 		int pageSize = getPageSize();
 		assert pageSize > 0;
+		PageSizeController pageSizeController = autoPageSize ? 
+				table.getSession().newPageSizeController(pageSize) : null;
+		if (pageSizeController != null) pageSize = pageSizeController.getPageSize();
+		if (!finished && prefetch > 0) {
+			rowCount = callPrefetch(pageSize, pageSizeController);
+			finished = true;
+		}
 		while (!finished) {
-			Parameters params = new Parameters();
-			if (orderBy == OrderBy.KEYS) {
-				setKeyExclusion(maxKey);
+			Parameters params = getPageParameters(maxKey, offset, pageSize);
+			metrics.addPage(pageSize);
+			int pageRows;
+			long responseMillis;
+			long responseBytes = 0;
+			long startTime = System.currentTimeMillis();
+			if (streaming) {
+				RecordStream stream = restAPI.getRecordStream(params);
+				// Records are written as they are read, so only the time to the response is measured
+				responseMillis = System.currentTimeMillis() - startTime;
+				stream.setInputMetrics(metrics);
+				try {
+					writer.processRecords(stream, metrics, progress);
+				}
+				finally {
+					stream.close();
+				}
+				pageRows = stream.size();
+				maxKey = stream.maxKey();
+				responseBytes = stream.getBytesRead();
+				logger.debug(Log.RESPONSE, String.format("streamed %d rows", pageRows));
 			}
 			else {
-				// Should be dead code. We always order by sys_id.
-				params.add("sysparm_offset", Integer.toString(offset));				
+				RecordList recs = restAPI.getRecords(params);
+				responseMillis = System.currentTimeMillis() - startTime;
+				pageRows = recs.size();
+				logger.debug(Log.RESPONSE, String.format("retrieved %d rows", pageRows));
+				incrementInput(pageRows);
+				maxKey = recs.maxKey();
+				writer.processRecords(recs, metrics, progress);
 			}
-			params.add("sysparm_limit", Integer.toString(pageSize));
-			params.add("sysparm_exclude_reference_link", "true");			
-			params.add("sysparm_display_value", displayValue ? "all" : "false");
-			if (fieldNames != null) params.add("sysparm_fields", fieldNames.addKey().toString());
-			if (viewName != null) params.add("sysparm_view", viewName);
-			EncodedQuery query = getQuery();
-			if (!query.isEmpty()) params.add("sysparm_query", query.toString());
-			RecordList recs = restAPI.getRecords(params);
-			logger.debug(Log.RESPONSE, String.format("retrieved %d rows", recs.size()));
-			incrementInput(recs.size());
-			maxKey = recs.maxKey();
-			writer.processRecords(recs, metrics, progress);	
-			rowCount += recs.size();
-			offset += recs.size();
-			if (isFinished(recs.size(), rowCount)) finished = true;
+			rowCount += pageRows;
+			offset += pageRows;
+			if (isFinished(pageRows, rowCount)) finished = true;
 			logger.debug(Log.PROCESS, String.format("processed %d rows so far", rowCount));
 			if (maxRows != null && rowCount > maxRows)
 				throw new TooManyRowsException(table, maxRows, rowCount);
+			if (checkpoint != null && pageRows > 0) checkpoint.pageComplete(this, maxKey, rowCount);
+			if (splitter != null && !finished) trySplit(maxKey, rowCount);
+			if (pageSizeController != null) {
+				pageSize = pageSizeController.update(pageRows, responseMillis, responseBytes);
+				// RestPetitTableReader.isFinished compares the page rows to the page size
+				this.pageSize = pageSize;
+			}
 		}
+		if (checkpoint != null) checkpoint.readerComplete(this, rowCount);
 //      This code is found in Log4JProgressLogger.logComplete();		
 //		if (statsEnabled) {
 //			if (rowCount != getExpected().intValue()) {
@@ -125,6 +232,141 @@ public class RestTableReader extends TableReader {
 		return metrics;
 	}
 	
+	/**
+	 * Return the parameters for the next page.
+	 * Only values greater than maxKey will be returned.
+	 */
+	protected Parameters getPageParameters(RecordKey maxKey, int offset, int pageSize) {
+		Parameters params = new Parameters();
+		if (orderBy == OrderBy.KEYS) {
+			setKeyExclusion(maxKey);
+		}
+		else {
+			// Should be dead code. We always order by sys_id.
+			params.add("sysparm_offset", Integer.toString(offset));				
+		}
+		params.add("sysparm_limit", Integer.toString(pageSize));
+		params.add("sysparm_exclude_reference_link", "true");			
+		params.add("sysparm_display_value", displayValue ? "all" : "false");
+		if (fieldNames != null) params.add("sysparm_fields", fieldNames.addKey().toString());
+		if (viewName != null) params.add("sysparm_view", viewName);
+		EncodedQuery query = getQuery();
+		if (!query.isEmpty()) params.add("sysparm_query", query.toString());
+		return params;
+	}
+	
+	/**
+	 * Fetch pages on a background thread while the writer is processing the current page.
+	 * Pages are passed to this thread through a queue whose capacity is the prefetch depth,
+	 * so no more than prefetch + 2 pages are held in memory at once.
+	 * 
+	 * @return number of rows processed
+	 */
+	private int callPrefetch(int initialPageSize, PageSizeController pageSizeController) 
+			throws IOException, SQLException, JobCancelledException, InterruptedException {
+		final RecordList endOfData = new RecordList(table);
+		final BlockingQueue<RecordList> queue = new ArrayBlockingQueue<RecordList>(prefetch);
+		final String jobContext = Log.getJobContext();
+		logger.debug(Log.PROCESS, String.format("prefetch=%d", prefetch));
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		Future<Integer> fetcher = executor.submit(() -> {
+			Log.setTableContext(table, jobContext);
+			RecordKey maxKey = startKey;
+			int pageSize = initialPageSize;
+			int offset = 0;
+			int fetched = 0;
+			boolean finished = false;
+			while (!finished) {
+				Parameters params = getPageParameters(maxKey, offset, pageSize);
+				metrics.addPage(pageSize);
+				long startTime = System.currentTimeMillis();
+				RecordList recs = restAPI.getRecords(params);
+				long responseMillis = System.currentTimeMillis() - startTime;
+				int pageRows = recs.size();
+				logger.debug(Log.RESPONSE, String.format("prefetched %d rows", pageRows));
+				maxKey = recs.maxKey();
+				fetched += pageRows;
+				offset += pageRows;
+				if (isFinished(pageRows, fetched)) finished = true;
+				if (maxRows != null && fetched > maxRows) finished = true;
+				if (pageRows > 0) queue.put(recs);
+				if (pageSizeController != null) {
+					pageSize = pageSizeController.update(pageRows, responseMillis, 0);
+					this.pageSize = pageSize;
+				}
+			}
+			queue.put(endOfData);
+			return fetched;
+		});
+		executor.shutdown();
+		int rowCount = 0;
+		try {
+			while (true) {
+				RecordList recs = queue.poll(1, TimeUnit.SECONDS);
+				if (recs == null) {
+					// Nothing available; if the fetcher died then rethrow its exception
+					if (fetcher.isDone()) getFetcherResult(fetcher);
+					continue;
+				}
+				if (recs == endOfData) break;
+				incrementInput(recs.size());
+				writer.processRecords(recs, metrics, progress);
+				rowCount += recs.size();
+				logger.debug(Log.PROCESS, String.format("processed %d rows so far", rowCount));
+				if (maxRows != null && rowCount > maxRows)
+					throw new TooManyRowsException(table, maxRows, rowCount);
+				if (checkpoint != null) checkpoint.pageComplete(this, recs.maxKey(), rowCount);
+			}
+			getFetcherResult(fetcher);
+		}
+		finally {
+			if (!fetcher.isDone()) fetcher.cancel(true);
+		}
+		return rowCount;
+	}
+	
+	private static int getFetcherResult(Future<Integer> fetcher) 
+			throws IOException, InterruptedException {
+		try {
+			return fetcher.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) throw (IOException) cause;
+			if (cause instanceof InterruptedException) throw (InterruptedException) cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			throw new ServiceNowError(cause);
+		}
+	}
+	
+	/**
+	 * If the {@link KeySplitter} has an idle thread, then keep the keys between maxKey 
+	 * and the midpoint of the remaining range, and give the rest to a new reader.
+	 * This method is called between pages, so there is no request in flight 
+	 * which could return keys that belong to the new reader.
+	 */
+	private void trySplit(RecordKey maxKey, int rowCount) 
+			throws IOException, SQLException, InterruptedException, JobCancelledException {
+		if (!statsEnabled || prefetch > 0 || checkpoint != null || maxKey == null) return;
+		int remaining = getExpected() - rowCount;
+		if (!splitter.wantSplit(this, remaining)) return;
+		String end = (keyRange == null) ? null : keyRange.getEnd();
+		String mid = KeyPartition.midpoint(maxKey.toString(), end);
+		if (mid == null) return;
+		String start = (keyRange == null) ? null : keyRange.getStart();
+		String prefix = (keyRange == null) ? mid.substring(0, 8) : keyRange.getPrefix();
+		KeyPartition remainder = new KeyPartition(mid.substring(0, 8), mid, end);
+		// No page is in flight, so the range can be narrowed after the new reader is created
+		int given = splitter.split(this, remainder);
+		if (given < 0) {
+			logger.debug(Log.PROCESS, "no session available to split at " + mid);
+			return;
+		}
+		this.keyRange = new KeyPartition(prefix, start, mid);
+		metrics.setExpected(Math.max(0, getExpected() - given));
+		logger.info(Log.PROCESS, String.format(
+			"split at %s; gave %d of %d remaining rows", mid, given, remaining));
+	}
+	
 	protected boolean isFinished(int pageRows, int totalRows) {
 		if (pageRows == 0) return true;
 		if (statsEnabled && totalRows >= getExpected()) return true;
@@ -1,6 +1,8 @@
 package sndml.servicenow;
 
 import java.net.URI;
+import java.util.Date;
+
 import org.slf4j.Logger;
 
 import sndml.util.Log;
@@ -16,6 +18,7 @@ public abstract class ServiceNowRequest {
 	protected StatusLine statusLine;
 	protected int statusCode;
 	protected String responseContentType;
+	protected Date responseDate;
 	protected String requestText;
 	protected String responseText;
 		
@@ -36,6 +39,15 @@ public abstract class ServiceNowRequest {
 	public int getStatusCode() {
 		return statusLine.getStatusCode();
 	}
+
+	/**
+	 * Return the value of the <code>Date</code> header of the response,
+	 * which is the time according to the instance clock,
+	 * or null if the response did not have one.
+	 */
+	public Date getResponseDate() {
+		return responseDate;
+	}
 	
 	public String dumpRequestText() {
 		return requestText;
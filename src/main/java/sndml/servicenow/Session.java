@@ -1,19 +1,29 @@
 package sndml.servicenow;
 
+import java.io.File;
 import java.io.IOException;
+import java.net.CookieManager;
 import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.cookie.Cookie;
 import org.apache.http.impl.client.BasicCookieStore;
 import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
 import org.slf4j.Logger;
 
 import sndml.agent.AppSession;
@@ -39,10 +49,18 @@ public class Session {
 	protected final PoolingHttpClientConnectionManager connectionManager;	
 	protected final ConcurrentHashMap<String,TableWSDL> wsdlCache = 
 			new ConcurrentHashMap<String,TableWSDL>();
+	protected final int connectTimeoutMillis;
+	protected final int socketTimeoutMillis;
+	protected final long keepAliveMillis;
+	protected final RequestGovernor governor;
 	protected CloseableHttpClient client = null; // created on request
+	protected HttpClient asyncClient = null; // created on request
 	protected SchemaReader schemaReader = null;
+	protected final MetadataCache metadataCache;
+	private boolean dateFormatVerified = false;
 
 	protected final Logger logger = Log.getLogger(this.getClass());
+	static final int AUTO_INITIAL_PAGE_SIZE = 200;
 		
 	public Session(PropertySet propset) {
 		this.propset = propset;
@@ -63,6 +81,15 @@ public class Session {
 		this.userPassCreds = new UsernamePasswordCredentials(username, password);		
 		this.credsProvider.setCredentials(this.authScope, this.userPassCreds);	
 		this.connectionManager = new PoolingHttpClientConnectionManager();
+		this.connectionManager.setMaxTotal(propset.getInt("max_connections"));
+		this.connectionManager.setDefaultMaxPerRoute(propset.getInt("max_connections_per_route"));
+		this.connectTimeoutMillis = propset.getInt("connect_timeout_seconds") * 1000;
+		this.socketTimeoutMillis = propset.getInt("socket_timeout_seconds") * 1000;
+		this.keepAliveMillis = propset.getInt("keep_alive_seconds") * 1000L;
+		this.governor = RequestGovernor.forInstance(instance, propset);
+		String cacheDir = propset.getProperty("metadata_cache");
+		this.metadataCache = (cacheDir == null || cacheDir.trim().length() == 0) ? 
+			null : new MetadataCache(this, new File(cacheDir.trim()));
 		// Note that HTTP Client is created on initial request by createClient method below
 	}
 	
@@ -89,7 +116,16 @@ public class Session {
 		return new Session(this.propset);
 	}
 
+	/**
+	 * Return true if the <b>pagesize</b> property is "auto".
+	 */
+	public boolean autoPageSize() {
+		String value = propset.getProperty("pagesize");
+		return value != null && value.trim().equalsIgnoreCase("auto");
+	}
+	
 	public int defaultPageSize() {
+		if (autoPageSize()) return AUTO_INITIAL_PAGE_SIZE;
 		int pageSize = Integer.valueOf(propset.getProperty("pagesize"));
 		assert pageSize > 0;
 		return pageSize;
@@ -99,6 +135,33 @@ public class Session {
 		return defaultPageSize();
 	}
 		
+	/**
+	 * Create a {@link PageSizeController} using the limits in the connection profile.
+	 */
+	public PageSizeController newPageSizeController(int initialSize) {
+		return new PageSizeController(initialSize,
+			propset.getInt("pagesize_min"),
+			propset.getInt("pagesize_max"),
+			propset.getInt("pagesize_target_ms"),
+			propset.getInt("pagesize_target_kb") * 1024L);
+	}
+	
+	/**
+	 * Return the number of key slices which {@link KeySetTableReader}
+	 * should read with a single {@link BatchRequest}.
+	 */
+	public int getBatchSlices() {
+		return propset.getInt("batch_slices");
+	}
+	
+	/**
+	 * Return the number of key slices which {@link KeySetTableReader}
+	 * should request at the same time using the non-blocking client.
+	 */
+	public int getAsyncSlices() {
+		return propset.getInt("async_slices");
+	}
+	
 	public void close() {
 		if (client != null) closeClient();
 	}
@@ -121,13 +184,64 @@ public class Session {
 	}
 	
 	private void createClient() {
+		// A timeout of zero means use the system default
+		RequestConfig requestConfig = RequestConfig.custom().
+			setConnectTimeout(connectTimeoutMillis > 0 ? connectTimeoutMillis : -1).
+			setSocketTimeout(socketTimeoutMillis > 0 ? socketTimeoutMillis : -1).
+			build();
 		client = HttpClients.custom().
 			setConnectionManager(connectionManager).
 			setDefaultCredentialsProvider(credsProvider).
 			setDefaultCookieStore(cookieStore).
+			setDefaultRequestConfig(requestConfig).
+			setKeepAliveStrategy(this::getKeepAliveDuration).
 			build();			
 	}
 	
+	/**
+	 * Use the Keep-Alive header returned by the server, 
+	 * but not more than <b>keep_alive_seconds</b> if specified.
+	 */
+	private long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+		long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+		if (keepAliveMillis <= 0) return duration;
+		if (duration < 0 || duration > keepAliveMillis) return keepAliveMillis;
+		return duration;
+	}
+	
+	/**
+	 * Return a non-blocking {@link HttpClient} for use by {@link JsonRequest#executeAsync()}.
+	 * Requests are sent with preemptive basic authentication.
+	 * The client has its own cookie store, so it will use a different ServiceNow session
+	 * than {@link #getClient()}.
+	 */
+	public synchronized HttpClient getAsyncClient() {
+		if (asyncClient == null) {
+			HttpClient.Builder builder = HttpClient.newBuilder().
+				version(HttpClient.Version.HTTP_1_1).
+				cookieHandler(new CookieManager());
+			if (connectTimeoutMillis > 0) 
+				builder.connectTimeout(Duration.ofMillis(connectTimeoutMillis));
+			asyncClient = builder.build();
+		}
+		return asyncClient;
+	}
+	
+	/**
+	 * Value of the Authorization header for the non-blocking client.
+	 */
+	String getBasicAuthorization() {
+		String userpass = userPassCreds.getUserName() + ":" + userPassCreds.getPassword();
+		return "Basic " + Base64.getEncoder().encodeToString(userpass.getBytes(StandardCharsets.UTF_8));
+	}
+	
+	/**
+	 * Return the socket timeout in milliseconds, or zero if there is no timeout.
+	 */
+	int getSocketTimeoutMillis() {
+		return socketTimeoutMillis;
+	}
+	
 	private void closeClient() {
 		try {
 			client.close();
@@ -137,6 +251,13 @@ public class Session {
 		this.client = null;
 	}
 
+	/**
+	 * Return the {@link RequestGovernor} which is shared by all sessions for this instance.
+	 */
+	public RequestGovernor getGovernor() {
+		return this.governor;
+	}
+	
 	public Instance getInstance() {
 		return this.instance;
 	}
@@ -153,6 +274,14 @@ public class Session {
 		return this.domain;
 	}
 	
+	/**
+	 * Return the {@link MetadataCache} if the <b>metadata_cache</b> property is specified,
+	 * otherwise null.
+	 */
+	public MetadataCache getMetadataCache() {
+		return this.metadataCache;
+	}
+	
 	/**
 	 * Generate {@link TableWSDL} or retrieve from cache.
 	 */
@@ -161,7 +290,11 @@ public class Session {
 			return wsdlCache.get(tablename);
 		String saveJob = Log.getJobContext();
 		Log.setJobContext(tablename + ".wsdl");		
-		TableWSDL wsdl = new TableWSDL(this, tablename);
+		TableWSDL wsdl = metadataCache == null ? null : metadataCache.getWSDL(tablename);
+		if (wsdl == null) {
+			wsdl = new TableWSDL(this, tablename);
+			if (metadataCache != null) metadataCache.putWSDL(wsdl);
+		}
 		wsdlCache.put(tablename, wsdl);
 		Log.setJobContext(saveJob);						
 		return wsdl;
@@ -220,6 +353,33 @@ public class Session {
 		return this;
 	}
 	
+	/**
+	 * Verify that the user's preferences format date-time values 
+	 * as <code>yyyy-MM-dd HH:mm:ss</code> in GMT.
+	 * This is required by {@link CsvTableReader}, because the CSV export processor
+	 * formats values using the preferences of the user.
+	 * A blank date or time format is the system default, which is assumed to be the standard format.
+	 * The user profile is only read the first time this method is called.
+	 */
+	public synchronized Session verifyDateFormat() throws IOException, ServiceNowException {
+		if (dateFormatVerified) return this;
+		TableRecord userProfile = this.getUserProfile();
+		String timezone = userProfile.getValue("time_zone");
+		String dateFormat = userProfile.getValue("date_format");
+		String timeFormat = userProfile.getValue("time_format");
+		if (!"GMT".equals(timezone))
+			throw new ServiceNowException(String.format(
+				"Time zone is %s for user %s; must be GMT", timezone, this.username));
+		if (!(dateFormat == null || dateFormat.isEmpty() || "yyyy-MM-dd".equals(dateFormat)))
+			throw new ServiceNowException(String.format(
+				"Date format is %s for user %s; must be yyyy-MM-dd", dateFormat, this.username));
+		if (!(timeFormat == null || timeFormat.isEmpty() || "HH:mm:ss".equals(timeFormat)))
+			throw new ServiceNowException(String.format(
+				"Time format is %s for user %s; must be HH:mm:ss", timeFormat, this.username));
+		dateFormatVerified = true;
+		return this;
+	}
+	
 	/**
 	 * Verify that the Schema for a table can be retrieved.
 	 */
@@ -261,5 +421,20 @@ public class Session {
 		}
 		return null;
 	}
+	
+	/**
+	 * Return an identifier for the ServiceNow application node which is serving this session,
+	 * which is obtained from the load balancer route cookie.
+	 * Return null if a request has not yet been made or the route cookie is missing.
+	 */
+	public String getNodeID() {
+		String result = null;
+		for (Cookie cookie : cookieStore.getCookies()) {
+			String name = cookie.getName();
+			if ("glide_user_route".equals(name)) return cookie.getValue();
+			if (name.startsWith("BIGipServerpool")) result = cookie.getValue();
+		}
+		return result;
+	}
 		
 }
@@ -0,0 +1,275 @@
+package sndml.servicenow;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+
+import sndml.util.Log;
+import sndml.util.Metrics;
+
+/**
+ * <p>A bounded pool of {@link Session} objects which are used by the threads
+ * of a partitioned job.</p>
+ *
+ * <p>Each pooled session is a {@link Session#duplicate()} of the prototype,
+ * with its own connection manager and cookie store.
+ * A new session is authenticated (by reading the user's <code>sys_user</code> record)
+ * before it is handed out, so that the first request of a partition does not
+ * pay for establishing a ServiceNow session.
+ * When a partition completes, its session is returned to the pool with its
+ * keep-alive connections intact, and it is reused by the next partition.</p>
+ *
+ * <p>No more than {@link #getMaxSize()} sessions are created.
+ * If all of them are in use then {@link #acquire()} waits for one to be released,
+ * whereas {@link #tryAcquire()} returns null.</p>
+ *
+ * <p>Because each session has its own cookie store, the load balancer may route
+ * each session to a different ServiceNow application node.
+ * The pool tracks the node of each session (see {@link Session#getNodeID()}),
+ * and an idle session is handed out from the node with the fewest sessions in use.
+ * If <b>spread_nodes</b> is true, then when a new session lands on a node
+ * which is already serving another session of the pool, it is discarded and
+ * the login is retried (up to {@link #NODE_ATTEMPTS} times) in an attempt to
+ * reach a node which is not in use.</p>
+ */
+public class SessionPool {
+
+	/**
+	 * Maximum number of logins when attempting to reach an unused node.
+	 */
+	public static final int NODE_ATTEMPTS = 4;
+	static final String UNKNOWN_NODE = "";
+
+	final Session prototype;
+	final int maxSize;
+	private boolean spreadNodes = false;
+	private final List<Session> idle = new ArrayList<Session>();
+	// node of each session when it was created
+	private final Map<Session, String> sessionNode = new IdentityHashMap<Session, String>();
+	private final Map<String, Integer> nodeSessions = new HashMap<String, Integer>();
+	private final Map<String, Integer> nodeLeases = new HashMap<String, Integer>();
+	private int created = 0;
+	private int leased = 0;
+	private boolean closed = false;
+
+	final private Logger logger = Log.getLogger(this.getClass());
+
+	/**
+	 * @param prototype The sessions in the pool are duplicates of this session
+	 * @param maxSize Maximum number of sessions which will be created
+	 */
+	public SessionPool(Session prototype, int maxSize) {
+		assert prototype != null;
+		this.prototype = prototype;
+		this.maxSize = Math.max(maxSize, 1);
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * If true then new sessions will be spread across application nodes.
+	 */
+	public synchronized void setSpreadNodes(boolean value) {
+		this.spreadNodes = value;
+	}
+
+	/**
+	 * Return the number of sessions in the pool for each application node.
+	 */
+	public synchronized Map<String, Integer> getNodeSessions() {
+		return new TreeMap<String, Integer>(nodeSessions);
+	}
+
+	/**
+	 * Log a warning if a job has more threads than the maximum size of the pool.
+	 * The pool is not enlarged. The extra threads wait for a session to be released,
+	 * so no more than {@link #getMaxSize()} partitions will run at the same time.
+	 * A running partition is only split if a session is free (see {@link #tryAcquire()}).
+	 */
+	public void checkCapacity(int threads) {
+		if (threads > maxSize)
+			logger.warn(Log.INIT, String.format(
+				"%d threads exceeds session pool size %d; threads will wait for sessions", 
+				threads, maxSize));
+	}
+
+	/**
+	 * Return an idle session, or create a new session if the pool is not full.
+	 * If the pool is full then wait for a session to be released.
+	 */
+	public Session acquire() throws IOException, InterruptedException {
+		return acquire(true);
+	}
+
+	/**
+	 * Return an idle session, or create a new session if the pool is not full.
+	 * If the pool is full then return null without waiting.
+	 * This is used by a thread which already holds a session,
+	 * since waiting could deadlock if every thread did the same.
+	 */
+	public Session tryAcquire() throws IOException, InterruptedException {
+		return acquire(false);
+	}
+
+	private Session acquire(boolean wait) throws IOException, InterruptedException {
+		synchronized (this) {
+			while (true) {
+				if (closed) throw new IllegalStateException("session pool is closed");
+				if (!idle.isEmpty()) {
+					Session session = idle.remove(leastUsedIdle());
+					leased += 1;
+					nodeLeases.merge(nodeOf(session), 1, Integer::sum);
+					return session;
+				}
+				if (created < maxSize) break;
+				if (!wait) return null;
+				wait();
+			}
+			// reserve a slot while the session is created outside of the lock
+			created += 1;
+			leased += 1;
+		}
+		Session session = null;
+		try {
+			session = createSession();
+			return session;
+		}
+		finally {
+			synchronized (this) {
+				if (session == null) {
+					created -= 1;
+					leased -= 1;
+				}
+				else {
+					sessionNode.put(session, nodeOf(session));
+					nodeSessions.merge(nodeOf(session), 1, Integer::sum);
+					nodeLeases.merge(nodeOf(session), 1, Integer::sum);
+					logger.info(Log.INIT, String.format(
+						"session pool created session %d of %d node=%s",
+						created, maxSize, session.getNodeID()));
+				}
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Create and authenticate a new session.
+	 * If spreading then keep the session from the least used node.
+	 */
+	private Session createSession() throws IOException {
+		int attempts = spreadNodes ? NODE_ATTEMPTS : 1;
+		Session best = null;
+		int bestCount = 0;
+		for (int i = 0; i < attempts; ++i) {
+			Session session = prototype.duplicate();
+			try {
+				session.getUserProfile();
+			}
+			catch (IOException | RuntimeException e) {
+				session.close();
+				if (best == null) throw e;
+				break;
+			}
+			int count = numSessions(nodeOf(session));
+			if (best == null || count < bestCount) {
+				if (best != null) best.close();
+				best = session;
+				bestCount = count;
+			}
+			else
+				session.close();
+			if (bestCount == 0) break;
+			logger.debug(Log.INIT, String.format(
+				"node %s has %d sessions; retrying login", nodeOf(session), count));
+		}
+		return best;
+	}
+
+	private synchronized int numSessions(String node) {
+		return nodeSessions.getOrDefault(node, 0);
+	}
+
+	/**
+	 * Return the index of the idle session whose node has the fewest sessions in use.
+	 */
+	private int leastUsedIdle() {
+		int result = 0;
+		int min = Integer.MAX_VALUE;
+		// most recently released sessions are at the end
+		for (int i = idle.size() - 1; i >= 0; --i) {
+			int count = nodeLeases.getOrDefault(nodeOf(idle.get(i)), 0);
+			if (count < min) {
+				min = count;
+				result = i;
+			}
+		}
+		return result;
+	}
+
+	private String nodeOf(Session session) {
+		String node = sessionNode.get(session);
+		if (node == null) node = session.getNodeID();
+		return node == null ? UNKNOWN_NODE : node;
+	}
+
+	/**
+	 * Return a session to the pool.
+	 */
+	public synchronized void release(Session session) {
+		assert session != null;
+		assert leased > 0;
+		leased -= 1;
+		String node = nodeOf(session);
+		nodeLeases.merge(node, -1, Integer::sum);
+		if (closed) {
+			session.close();
+			created -= 1;
+			nodeSessions.merge(node, -1, Integer::sum);
+			sessionNode.remove(session);
+		}
+		else
+			idle.add(session);
+		notifyAll();
+	}
+
+	/**
+	 * Return a session to the pool, and attribute the rows read by a reader
+	 * to the node of the session.
+	 */
+	public void release(Session session, Metrics metrics) {
+		String node;
+		synchronized (this) {
+			node = nodeOf(session);
+		}
+		if (!UNKNOWN_NODE.equals(node) && metrics != null) metrics.addNodeInput(node);
+		release(session);
+	}
+
+	/**
+	 * Close all idle sessions.
+	 * Sessions which are in use will be closed when they are released.
+	 */
+	public synchronized void close() {
+		closed = true;
+		for (Session session : idle) {
+			session.close();
+			created -= 1;
+			nodeSessions.merge(nodeOf(session), -1, Integer::sum);
+			sessionNode.remove(session);
+		}
+		idle.clear();
+		if (!nodeSessions.isEmpty())
+			logger.debug(Log.FINISH, "session pool nodes=" + nodeSessions);
+		notifyAll();
+	}
+
+}
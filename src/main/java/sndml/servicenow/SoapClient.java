@@ -5,7 +5,10 @@ import java.net.URI;
 import java.util.Iterator;
 import java.util.Set;
 
-import org.apache.commons.lang3.StringUtils;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
 import org.jdom2.Document;
 import org.jdom2.Element;
 import org.jdom2.Namespace;
@@ -84,11 +87,7 @@ public class SoapClient {
 			String faultString = getFaultString(responseElement);
 			assert faultString != null;
 			logger.error(Log.RESPONSE, faultString);
-			if (StringUtils.containsIgnoreCase(faultString, "insufficient rights"))
-				throw new InsufficientRightsException(xmlRequest);
-			if (StringUtils.containsIgnoreCase(faultString,  "missing record"))
-				throw new NoSuchRecordException(xmlRequest, faultString);
-			throw new SoapResponseException(tablename, faultString);			
+			throw faultException(xmlRequest, faultString);
 		}
 		if (responseElementName != null && !responseElementName.equals(responseElement.getName()))
 			throw new ServiceNowError(
@@ -96,6 +95,87 @@ public class SoapClient {
 		return responseElement;		
 	}
 	
+	/**
+	 * Execute a request and decode the response with a StAX parser
+	 * rather than building a JDOM {@link Document}.
+	 * The handler is called with the reader positioned at the start of the response element,
+	 * and must consume the response element including its end tag.
+	 */
+	<T> T executeStream(
+			String methodName, 
+			Parameters docParams, 
+			Parameters uriParams, 
+			String responseElementName,
+			XmlRequest.StreamHandler<T> handler) throws IOException {
+		URI uri = session.getURI(this.uriPath, uriParams);
+		Element method = createXmlElement(methodName, docParams);
+		Document requestDoc = createSoapDocument(method);	
+		if (logger.isDebugEnabled()) {
+			String requestText = XmlFormatter.format(requestDoc);
+			logger.debug(Log.REQUEST, "\n" + requestText);
+		}
+		XmlRequest xmlRequest = new XmlRequest(session.getClient(), uri, requestDoc);
+		return xmlRequest.parseStream(reader -> {
+			// Advance to the first element in the Body
+			while (!(reader.isStartElement() && "Body".equals(reader.getLocalName()) &&
+					nsSoapEnv.getURI().equals(reader.getNamespaceURI()))) {
+				if (!reader.hasNext()) throw new SoapResponseException(tablename, "Body not found");
+				reader.next();
+			}
+			reader.nextTag();
+			String elementName = reader.getLocalName();
+			if (elementName.equals("Fault")) {
+				String faultString = getFaultString(reader);
+				logger.error(Log.RESPONSE, faultString);
+				throw faultException(xmlRequest, faultString);
+			}
+			if (responseElementName != null && !responseElementName.equals(elementName))
+				throw new ServiceNowError(
+					"responseElementName expected=" + responseElementName + "; found=" + elementName);
+			return handler.parse(reader);
+		});
+	}
+	
+	/**
+	 * Return the exception to be thrown for a SOAP Fault.
+	 */
+	private IOException faultException(XmlRequest xmlRequest, String faultString) {
+		String lower = faultString == null ? "" : faultString.toLowerCase();
+		if (lower.contains("insufficient rights"))
+			return new InsufficientRightsException(xmlRequest);
+		if (lower.contains("missing record"))
+			return new NoSuchRecordException(xmlRequest, faultString);
+		return new SoapResponseException(tablename, faultString);
+	}
+	
+	/**
+	 * Read the faultstring from a Fault element
+	 */
+	private static String getFaultString(XMLStreamReader reader) throws XMLStreamException {
+		String result = null;
+		while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+			if ("faultstring".equals(reader.getLocalName()))
+				result = reader.getElementText();
+			else
+				skipElement(reader);
+		}
+		return result;
+	}
+	
+	/**
+	 * Skip the current element, including any children.
+	 * On return the reader is positioned at the end of the element.
+	 */
+	static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+		assert reader.isStartElement();
+		int depth = 1;
+		while (depth > 0) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) depth += 1;
+			if (event == XMLStreamConstants.END_ELEMENT) depth -= 1;
+		}
+	}
+	
 	Document createSoapDocument(Element content) {
 	    Element requestHeader = new Element("Header", nsSoapEnv);
 	    Element requestBody = new Element("Body", nsSoapEnv);
@@ -1,7 +1,11 @@
 package sndml.servicenow;
 
 import java.io.IOException;
-import java.util.Iterator;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
 import org.jdom2.Element;
 import org.jdom2.Namespace;
 import org.slf4j.Logger;
@@ -49,25 +53,61 @@ public class SoapTableAPI extends TableAPI {
 	 */
 	public RecordKeySet getKeys(Parameters params) throws IOException {
 		Log.setMethodContext(table, "getKeys");
-		Element responseElement = client.executeRequest("getKeys", params, null, "getKeysResponse");
-		Namespace ns = responseElement.getNamespace();
-		int size = Integer.parseInt(responseElement.getChildText("count", ns));
-		logger.trace(Log.RESPONSE, "getKeys returned " + size + " keys");
 		RecordKeySet result = new RecordKeySet();
-		if (size > 0) {
-			result.ensureCapacity(size);
-			String listStr = responseElement.getChildText("sys_id", ns);
-			String list[] = listStr.split(",");
-			if (list.length != size) {
-				logger.error(Log.RESPONSE, XmlFormatter.format(responseElement));
-				throw new SoapResponseException(this.table, "getKeys",
-					"expected: " + size + ", found=" + list.length, responseElement);
+		int size = client.executeStream("getKeys", params, null, "getKeysResponse", 
+			reader -> readKeys(reader, result));
+		logger.trace(Log.RESPONSE, "getKeys returned " + size + " keys");
+		if (result.size() != size)
+			throw new SoapResponseException(this.table.getName(), 
+				"getKeys expected: " + size + ", found=" + result.size());
+		return result;		
+	}
+	
+	/**
+	 * Read the children of a getKeysResponse element.
+	 * The comma separated <code>sys_id</code> list is tokenized as it is read,
+	 * so that the complete list is never held in memory as a single string.
+	 * 
+	 * @return the value of the <code>count</code> element
+	 */
+	static int readKeys(XMLStreamReader reader, RecordKeySet keys) throws XMLStreamException {
+		int count = 0;
+		while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+			String name = reader.getLocalName();
+			if ("count".equals(name))
+				count = Integer.parseInt(reader.getElementText().trim());
+			else if ("sys_id".equals(name))
+				readKeyList(reader, keys);
+			else
+				SoapClient.skipElement(reader);
+		}
+		return count;
+	}
+	
+	private static void readKeyList(XMLStreamReader reader, RecordKeySet keys) throws XMLStreamException {
+		StringBuilder token = new StringBuilder(32);
+		while (true) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) {
+				char[] chars = reader.getTextCharacters();
+				int end = reader.getTextStart() + reader.getTextLength();
+				for (int i = reader.getTextStart(); i < end; ++i) {
+					if (chars[i] == ',') 
+						addKey(keys, token);
+					else if (!Character.isWhitespace(chars[i]))
+						token.append(chars[i]);
+				}
 			}
-			for (int i = 0; i < list.length; ++i) {
-				result.add(new RecordKey(list[i]));
+			else if (event == XMLStreamConstants.END_ELEMENT) {
+				addKey(keys, token);
+				return;
 			}
 		}
-		return result;		
+	}
+	
+	private static void addKey(RecordKeySet keys, StringBuilder token) {
+		if (token.length() > 0) keys.add(new RecordKey(token.toString()));
+		token.setLength(0);
 	}
 	
 	public TableRecord getRecord(RecordKey key) throws IOException {
@@ -126,17 +166,33 @@ public class SoapTableAPI extends TableAPI {
 		Log.setMethodContext(table, "getRecords");
 		Parameters uriParams = new Parameters();
 		uriParams.add("displayvalue", displayValue ? "all" : "false");
-		Element responseElement = 
-			client.executeRequest("getRecords", docParams, uriParams, "getRecordsResponse");
-		int size = responseElement.getContentSize();
-		RecordList list = new RecordList(getTable(), size);
-		Iterator<Element> iter = responseElement.getChildren().iterator();
-		while (iter.hasNext()) {
-			Element next = iter.next();
-			XmlRecord rec = new XmlRecord(this.table, next);
-			list.add(rec);
+		return client.executeStream("getRecords", docParams, uriParams, "getRecordsResponse",
+			reader -> readRecords(this.table, reader));
+	}
+	
+	/**
+	 * Read the children of a getRecordsResponse element,
+	 * creating an {@link XmlRecord} from each one as it is read.
+	 */
+	static RecordList readRecords(Table table, XMLStreamReader reader) 
+			throws XMLStreamException, SoapResponseException {
+		RecordList list = new RecordList(table);
+		while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+			Element record = createElement(reader);
+			while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+				Element field = createElement(reader);
+				field.setText(reader.getElementText());
+				record.addContent(field);
+			}
+			list.add(new XmlRecord(table, record));
 		}
-		return list;		
+		return list;
+	}
+	
+	private static Element createElement(XMLStreamReader reader) {
+		String uri = reader.getNamespaceURI();
+		return new Element(reader.getLocalName(), 
+			uri == null ? Namespace.NO_NAMESPACE : Namespace.getNamespace(uri));
 	}
 
 	public InsertResponse insertRecord(Parameters docParams) throws IOException {
@@ -10,6 +10,7 @@ import org.slf4j.LoggerFactory;
 import sndml.agent.JobCancelledException;
 import sndml.util.DateTimeRange;
 import sndml.util.FieldNames;
+import sndml.util.KeyPartition;
 import sndml.util.Metrics;
 import sndml.util.NullProgressLogger;
 import sndml.util.ProgressLogger;
@@ -26,6 +27,7 @@ public abstract class TableReader implements Callable<Metrics> {
 	protected EncodedQuery filter; 
 	protected DateTimeRange createdRange;
 	protected DateTimeRange updatedRange;
+	protected KeyPartition keyRange;
 	// keyExclusion is use for pagination; only values greater than the current key will be returned
 	private RecordKey keyExclusion = null;
 	
@@ -33,6 +35,7 @@ public abstract class TableReader implements Callable<Metrics> {
 	// Note: RestTableReader sets orderBy to KEYS
 	protected OrderBy orderBy = OrderBy.KEYS;
 	protected int pageSize;
+	protected boolean autoPageSize;
 	protected boolean displayValue = false;
 	protected String viewName = null;
 	protected FieldNames fieldNames = null;	
@@ -50,6 +53,7 @@ public abstract class TableReader implements Callable<Metrics> {
 		this.table = table;
 		this.logger = LoggerFactory.getLogger(this.getClass());
 		this.pageSize = table.session.defaultPageSize(table);
+		this.autoPageSize = table.session.autoPageSize();
 	}
 	
 	protected void beginPrepare(RecordWriter writer, Metrics metrics, ProgressLogger progress) {	
@@ -119,12 +123,34 @@ public abstract class TableReader implements Callable<Metrics> {
 		metrics.addInput(count);
 	}
 		
+	/**
+	 * Set a fixed page size. 
+	 * If the value is null then the default page size is used.
+	 */
 	public TableReader setPageSize(Integer size) {
 		if (initialized) throw new IllegalStateException();
-		if (size != null) this.pageSize = size;
+		if (size != null) {
+			this.pageSize = size;
+			this.autoPageSize = false;
+		}
+		return this;
+	}
+	
+	/**
+	 * If true then the page size will be adjusted after each page
+	 * based on response time and response size.
+	 * Only supported by {@link RestTableReader}.
+	 */
+	public TableReader setAutoPageSize(boolean value) {
+		if (initialized) throw new IllegalStateException();
+		this.autoPageSize = value;
 		return this;
 	}
 	
+	public boolean getAutoPageSize() {
+		return this.autoPageSize;
+	}
+	
 	public int getPageSize() {
 		int result = this.pageSize;
 		assert result > 0;
@@ -172,6 +198,20 @@ public abstract class TableReader implements Callable<Metrics> {
 		return this.updatedRange;
 	}
 	
+	/**
+	 * Restrict the reader to a range of sys_id values.
+	 */
+	public TableReader setKeyRange(KeyPartition range) {
+		if (initialized) throw new IllegalStateException();
+		// argument may be null to clear the range
+		this.keyRange = range;
+		return this;
+	}
+	
+	public KeyPartition getKeyRange() {
+		return this.keyRange;
+	}
+	
 	public TableReader orderByKeys(boolean value) {
 		this.orderBy = value ? OrderBy.KEYS : OrderBy.NONE;
 		return this;
@@ -221,20 +261,21 @@ public abstract class TableReader implements Callable<Metrics> {
 
 	/**
 	 * Return a composite query built from base query, 
-	 * plus created range, updated range and key exclusion
+	 * plus created range, updated range, key range and key exclusion
 	 */
 	public EncodedQuery getStatsQuery() {
 		EncodedQuery result = (filter == null) ? 
 				new EncodedQuery(table) : new EncodedQuery(filter);
 		if (createdRange != null) result.addCreated(createdRange);
 		if (updatedRange != null) result.addUpdated(updatedRange);
+		if (keyRange != null) result.addKeyRange(keyRange.getStart(), keyRange.getEnd());
 		if (keyExclusion != null) result.excludeKeys(keyExclusion);
 		return result;
 	}
 	
 	/**
 	 * Return a composite query built from base query, 
-	 * plus created range, updated range and key exclusion
+	 * plus created range, updated range, key range and key exclusion
 	 * plus order by clause
 	 */
 	public EncodedQuery getQuery() {
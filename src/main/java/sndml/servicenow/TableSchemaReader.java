@@ -1,12 +1,16 @@
 package sndml.servicenow;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import sndml.agent.JobCancelledException;
+import sndml.util.FieldNames;
 import sndml.util.Log;
+import sndml.util.Parameters;
 import sndml.util.ResourceException;
 
 /**
@@ -19,6 +23,11 @@ public class TableSchemaReader implements SchemaReader {
 	private final Table dictionary;
 	private final Table hierarchy;
 	
+	/**
+	 * Number of ancestors which are read with a single request by {@link #getHierarchy(String)}.
+	 */
+	static final int HIERARCHY_DEPTH = 8;
+	
 	final private Logger logger = LoggerFactory.getLogger(this.getClass());
 	
 	public TableSchemaReader(Session session) {
@@ -31,30 +40,88 @@ public class TableSchemaReader implements SchemaReader {
 		return getSchema(session.table(tablename));
 	}
 	
+	/**
+	 * Return the schema from the {@link MetadataCache} if the session has one and it is current.
+	 * Otherwise read the schema from the instance and save it in the cache.
+	 */
 	public TableSchema getSchema(Table table) throws IOException, InterruptedException {
+		MetadataCache cache = session.getMetadataCache();
+		if (cache != null) {
+			TableSchema cached = cache.getSchema(table);
+			if (cached != null) return cached;
+		}
+		List<String> hierarchy = new ArrayList<String>();
+		TableSchema schema = readSchema(table, hierarchy);
+		if (cache != null) cache.putSchema(schema, hierarchy);
+		return schema;
+	}
+	
+	/**
+	 * Return the names of a table and all of its ancestors, beginning with the table.
+	 * The ancestors are obtained by dot-walking <code>super_class</code>,
+	 * so that {@link #HIERARCHY_DEPTH} levels are read with a single request.
+	 */
+	public List<String> getHierarchy(String tablename) throws IOException {
+		Log.setTableContext(hierarchy,  hierarchy.getName() + "." + tablename);
+		FieldNames fields = new FieldNames();
+		String path = "name";
+		for (int level = 0; level <= HIERARCHY_DEPTH; ++level) {
+			fields.add(path);
+			path = "super_class." + path;
+		}
+		List<String> result = new ArrayList<String>();
+		String name = tablename;
+		while (name != null) {
+			Parameters params = new Parameters();
+			params.add("sysparm_query", new EncodedQuery(hierarchy).addEquals("name", name).toString());
+			params.add("sysparm_fields", fields.toString());
+			params.add("sysparm_limit", "1");
+			RecordList recs = hierarchy.rest().getRecords(params);
+			if (recs.size() == 0) {
+				logger.error(Log.SCHEMA, "Unable to read schema for: " + name +
+						" (check access controls for sys_dictionary and sys_db_object)");
+				throw new InvalidTableNameException(name);			
+			}
+			TableRecord rec = recs.get(0);
+			result.add(name);
+			name = null;
+			for (int level = 1; level < fields.size(); ++level) {
+				String ancestor = rec.getValue(fields.get(level));
+				if (ancestor == null) break;
+				result.add(ancestor);
+				// If the chain is deeper than the dot-walk then continue from the last ancestor
+				if (level == fields.size() - 1) name = result.remove(result.size() - 1);
+			}
+		}
+		logger.debug(Log.SCHEMA, "hierarchy of " + tablename + " is " + result);
+		return result;
+	}
+	
+	/**
+	 * Read the schema from the instance.
+	 * The hierarchy is resolved first, and then the dictionary entries for all of the tables
+	 * in the hierarchy are read with a single query.
+	 * The names of the table and its ancestors are appended to hierarchy.
+	 */
+	private TableSchema readSchema(Table table, List<String> hierarchy) 
+			throws IOException, InterruptedException {
 		String tablename = table.getName();
 		String saveJob = Log.getJobContext();
+		hierarchy.addAll(getHierarchy(tablename));
 		String myname = dictionary.getName() + "." + tablename;
 		Log.setTableContext(dictionary,  myname);	
-		logger.debug(Log.SCHEMA, "get definition for table " + tablename);
-		TableSchema schema = new TableSchema(table);
-		String parentname = determineParentName(tablename);
-		logger.info(Log.SCHEMA, String.format("table=%s parent=%s", tablename, parentname));
-		if (parentname != null) {
-			// recursive call for parent definition
-			TableSchema parentSchema = getSchema(parentname);
-			for (FieldDefinition parentField : parentSchema.getFieldDefinitions()) {
-				schema.addField(parentField);
-			}
-		}
+		logger.info(Log.SCHEMA, String.format("table=%s hierarchy=%s", tablename, hierarchy));
 		
 		EncodedQuery query = new EncodedQuery(dictionary).
-			addEquals("name",  tablename).
+			addQuery("name", EncodedQuery.IN, String.join(",", hierarchy)).
 			addEquals("active", "true").
 			addNotNull("element");		
+		FieldNames dictFields = new FieldNames();
+		dictFields.add("name");
+		dictFields.addAll(FieldDefinition.DICT_FIELDS);
 		RestTableReader reader = new RestPetitTableReader(dictionary);
 		reader.setFilter(query);
-		reader.setFields(FieldDefinition.DICT_FIELDS);
+		reader.setFields(dictFields);
 		reader.setPageSize(2000);
 		RecordList recs;
 		try {
@@ -62,13 +129,20 @@ public class TableSchemaReader implements SchemaReader {
 		} catch (JobCancelledException e) {
 			throw new ResourceException(e);
 		}
-		for (TableRecord rec : recs) {
-			String fieldname = rec.getValue("element");
-			if (fieldname != null) {
-				FieldDefinition fieldDef = new FieldDefinition(table, rec);
-				schema.addField(fieldDef);
-				logger.debug(Log.BIND, String.format("%s.%s %s(%d)", 
-						tablename, fieldname, fieldDef.getType(), fieldDef.getLength()));
+		
+		// Add the fields from the most distant ancestor first
+		TableSchema schema = new TableSchema(table);
+		for (int level = hierarchy.size() - 1; level >= 0; --level) {
+			String levelName = hierarchy.get(level);
+			Table levelTable = level == 0 ? table : session.table(levelName);
+			for (TableRecord rec : recs) {
+				String fieldname = rec.getValue("element");
+				if (fieldname != null && levelName.equals(rec.getValue("name"))) {
+					FieldDefinition fieldDef = new FieldDefinition(levelTable, rec);
+					schema.addField(fieldDef);
+					logger.debug(Log.BIND, String.format("%s.%s %s(%d)", 
+							levelName, fieldname, fieldDef.getType(), fieldDef.getLength()));
+				}
 			}
 		}
 						
@@ -85,21 +159,4 @@ public class TableSchemaReader implements SchemaReader {
 		
 	}
 	
-	private String determineParentName(String tableName) throws IOException {
-		Log.setTableContext(hierarchy,  hierarchy.getName() + "." + tableName);
-		TableRecord myRec = hierarchy.api().getRecord("name", tableName);
-		if (myRec == null) {
-			logger.error(Log.SCHEMA, "Unable to read schema for: " + tableName +
-					" (check access controls for sys_dictionary and sys_db_object)");
-			throw new InvalidTableNameException(tableName);			
-		}
-		RecordKey parentKey = myRec.getKey("super_class");
-		if (parentKey == null) return null;
-		TableRecord parentRec = hierarchy.getRecord(parentKey);
-		String parentName = parentRec.getValue("name");
-		logger.debug(Log.SCHEMA, "parent of " + tableName + " is " + parentKey + "/" + parentName);
-		return parentName;
-	}
-	
-	
 }
@@ -1,11 +1,14 @@
 package sndml.servicenow;
 
+import sndml.util.DateTime;
 import sndml.util.DateTimeRange;
 
 public class TableStats {
 	
 	public int count;
 	public DateTimeRange created;
+	public DateTimeRange updated;
+	public DateTime maxUpdated;
 	
 	public int getCount() {
 		return count;
@@ -25,4 +28,22 @@ public class TableStats {
 		return this.created;
 	}
 
+	public TableStats setUpdated(DateTimeRange range) {
+		this.updated = range;
+		return this;
+	}
+	
+	public DateTimeRange getUpdated() {
+		return this.updated;
+	}
+
+	public TableStats setMaxUpdated(DateTime value) {
+		this.maxUpdated = value;
+		return this;
+	}
+	
+	public DateTime getMaxUpdated() {
+		return this.maxUpdated;
+	}
+
 }
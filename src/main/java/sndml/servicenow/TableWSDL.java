@@ -3,6 +3,7 @@ package sndml.servicenow;
 import java.io.IOException;
 import java.net.URI;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import org.jdom2.Document;
@@ -69,6 +70,44 @@ public class TableWSDL {
 		Log.clearURIContext();
 	}
 
+	/**
+	 * Construct from the field names and types which were saved by {@link MetadataCache}.
+	 * The field names are in the same order as the maps.
+	 */
+	TableWSDL(String tablename, URI uri, 
+			LinkedHashMap<String, String> readTypes, LinkedHashMap<String, String> writeTypes) {
+		this.tablename = tablename;
+		this.uri = uri;
+		this.doc = null;
+		this.readColumnNames = new FieldNames(readTypes.keySet());
+		this.readColumnTypes = readTypes;
+		this.writeColumnNames = new FieldNames(writeTypes.keySet());
+		this.writeColumnTypes = writeTypes;
+	}
+
+	/**
+	 * Return the type of each readable field in the same order as {@link #getReadFieldNames()}.
+	 */
+	LinkedHashMap<String, String> getReadFieldTypes() {
+		return orderedTypes(readColumnNames, readColumnTypes);
+	}
+
+	/**
+	 * Return the type of each writable field in the same order as {@link #getWriteFieldNames()}.
+	 */
+	LinkedHashMap<String, String> getWriteFieldTypes() {
+		return orderedTypes(writeColumnNames, writeColumnTypes);
+	}
+
+	private static LinkedHashMap<String, String> orderedTypes(FieldNames names, Map<String, String> types) {
+		LinkedHashMap<String, String> result = new LinkedHashMap<String, String>();
+		for (String name : names) result.put(name, types.get(name));
+		return result;
+	}
+
+	/**
+	 * Return the document, or null if this object was loaded from a {@link MetadataCache}.
+	 */
 	Document getDocument() {
 		return this.doc;
 	}
@@ -1,8 +1,14 @@
 package sndml.servicenow;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringReader;
 import java.net.URI;
+import java.nio.charset.Charset;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
@@ -24,6 +30,15 @@ import sndml.util.Log;
 
 class XmlRequest extends ServiceNowRequest {
 
+	/**
+	 * Decodes a response using a StAX {@link XMLStreamReader}.
+	 */
+	interface StreamHandler<T> {
+		T parse(XMLStreamReader reader) throws XMLStreamException, IOException;
+	}
+	
+	static final XMLInputFactory inputFactory = createInputFactory();
+	
 	final Logger logger = Log.getLogger(this.getClass());
 
 	final Document requestDoc;
@@ -90,4 +105,75 @@ class XmlRequest extends ServiceNowRequest {
 		return responseDoc;		
 	}
 
+	/**
+	 * Execute the request and decode the response entity with a StAX parser
+	 * as it is read, without holding the complete response in memory.
+	 * The response is closed when the handler returns.
+	 */
+	public <T> T parseStream(StreamHandler<T> handler) throws IOException {
+		CloseableHttpResponse response = client.execute(request);
+		try {
+			statusLine = response.getStatusLine();		
+			statusCode = statusLine.getStatusCode();
+			HttpEntity responseEntity = response.getEntity();
+			Header contentTypeHeader = responseEntity == null ? null : responseEntity.getContentType();
+			responseContentType = contentTypeHeader == null ? null : contentTypeHeader.getValue();
+			logger.debug(Log.RESPONSE,
+				String.format("status=\"%s\" contentType=%s streaming", 
+					statusLine, responseContentType));
+			if (statusCode == 401 || statusCode == 403) {
+				responseText = EntityUtils.toString(responseEntity);
+				logger.error(Log.RESPONSE, this.dump());
+				throw new InsufficientRightsException(this);
+			}
+			if (responseContentType == null) {
+				logger.error(Log.RESPONSE, this.dump());
+				throw new NoContentException(this);
+			}
+			// If we asked for XML and we got HTML, it must be an error page
+			if (responseContentType.startsWith("text/html")) {
+				responseText = EntityUtils.toString(responseEntity);
+				throw new InstanceUnavailableException(this);
+			}
+			Charset charset = ContentType.getOrDefault(responseEntity).getCharset();
+			InputStream input = responseEntity.getContent();
+			XMLStreamReader reader = null;
+			try {
+				reader = charset == null ?
+					inputFactory.createXMLStreamReader(input) :
+					inputFactory.createXMLStreamReader(input, charset.name());
+				T result = handler.parse(reader);
+				EntityUtils.consume(responseEntity);
+				return result;
+			}
+			catch (XMLStreamException e) {
+				logger.error(Log.RESPONSE, "REQUEST:\n" + requestText, e);
+				throw new XmlParseException(uri, e);
+			}
+			finally {
+				if (reader != null) closeQuietly(reader);
+			}
+		}
+		finally {
+			response.close();
+		}
+	}
+	
+	private static void closeQuietly(XMLStreamReader reader) {
+		try {
+			reader.close();
+		} catch (XMLStreamException e) {
+			// ignore
+		}
+	}
+	
+	private static XMLInputFactory createInputFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		// Large text nodes (e.g. the sys_id list from getKeys) are returned in pieces
+		factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		return factory;
+	}
+
 }
@@ -5,7 +5,7 @@ package sndml.util;
  * Both start and end must be on an {@link PartitionInterval} boundary.
  *
  */
-public class DatePartition extends DateTimeRange {
+public class DatePartition extends DateTimeRange implements Partition {
 
 	protected final PartitionInterval interval;
 	
@@ -22,6 +22,24 @@ public class DatePartition extends DateTimeRange {
 			String.format("DatePart start=%s end=%s", start, end);
 	}
 	
+	/**
+	 * Used by {@link DateSpanPartition} for a partition which is more than one interval wide.
+	 */
+	protected DatePartition(PartitionInterval interval, DateTimeRange span) {
+		super(span.getStart(), span.getEnd());
+		this.interval = interval;
+		assert interval != null;
+		assert start != null;
+		assert end != null;
+		assert start.compareTo(end) < 0;
+		assert start.equals(start.truncate(interval)) : String.format("DatePart.start=%s", start);
+		assert end.equals(end.truncate(interval)) : String.format("DatePart end=%s", end);
+	}
+	
+	public PartitionInterval getInterval() {
+		return this.interval;
+	}
+	
 	public String getName() {
 		return getName(interval, start);
 	}
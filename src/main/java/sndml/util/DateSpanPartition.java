@@ -0,0 +1,24 @@
+package sndml.util;
+
+/**
+ * A {@link DatePartition} which covers one or more consecutive intervals.
+ * Both start and end must be on an {@link PartitionInterval} boundary.
+ * These partitions are created by the automatic partition planner,
+ * which merges sparse intervals so that each partition has a similar number of rows.
+ */
+public class DateSpanPartition extends DatePartition {
+
+	public DateSpanPartition(PartitionInterval interval, DateTime start, DateTime end) {
+		super(interval, new DateTimeRange(start, end));
+	}
+
+	/**
+	 * The name contains both the start and the end, 
+	 * so that spans which begin on the same date are not confused.
+	 */
+	@Override
+	public String getName() {
+		return getName(interval, start) + "~" + getName(interval, end);
+	}
+
+}
@@ -0,0 +1,82 @@
+package sndml.util;
+
+import java.math.BigInteger;
+
+/**
+ * One entry of a {@link KeyPartitionSet}.
+ * Contains all <code>sys_id</code> values greater than or equal to the start
+ * and less than the end. 
+ * The start of the first partition and the end of the last partition are null,
+ * so that values which are not hexadecimal are not skipped.
+ */
+public class KeyPartition implements Partition {
+
+	private final String prefix;
+	private final String start;
+	private final String end;
+	
+	public KeyPartition(String prefix, String start, String end) {
+		assert prefix != null;
+		this.prefix = prefix;
+		this.start = start;
+		this.end = end;
+	}
+	
+	public String getPrefix() {
+		return prefix;
+	}
+	
+	/**
+	 * Return the lower bound (inclusive) or null if there is no lower bound.
+	 */
+	public String getStart() {
+		return start;
+	}
+
+	/**
+	 * Return the upper bound (exclusive) or null if there is no upper bound.
+	 */
+	public String getEnd() {
+		return end;
+	}
+	
+	/**
+	 * Return a 32 character hexadecimal key approximately halfway between 
+	 * low (exclusive) and high (exclusive).
+	 * If high is null then the midpoint is between low and the largest possible key.
+	 * Values shorter than 32 characters (<i>i.e.</i> prefixes) are padded with zeros.
+	 * Return null if either value is not hexadecimal or there is no key between them.
+	 */
+	public static String midpoint(String low, String high) {
+		if (low == null) low = "0";
+		if (low.length() > 32 || (high != null && high.length() > 32)) return null;
+		BigInteger lo, hi;
+		try {
+			lo = new BigInteger(pad(low), 16);
+			hi = (high == null) ? BigInteger.ONE.shiftLeft(128) : new BigInteger(pad(high), 16);
+		}
+		catch (NumberFormatException e) {
+			return null;
+		}
+		if (lo.signum() < 0 || hi.signum() < 0) return null;
+		if (hi.subtract(lo).compareTo(BigInteger.TWO) < 0) return null;
+		String hex = lo.add(hi).shiftRight(1).toString(16);
+		if (hex.length() > 32) return null;
+		return "0".repeat(32 - hex.length()) + hex;
+	}
+	
+	private static String pad(String value) {
+		return value + "0".repeat(32 - value.length());
+	}
+	
+	@Override
+	public String getName() {
+		return "K-" + prefix;
+	}
+	
+	@Override
+	public String toString() {
+		return getName();
+	}
+	
+}
@@ -0,0 +1,94 @@
+package sndml.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A {@link KeyPartitionSet} divides the <code>sys_id</code> keyspace into
+ * contiguous ranges based on leading hexadecimal digits.
+ * Since <code>sys_id</code> values are randomly generated GUIDs,
+ * the partitions will contain a similar number of rows regardless of
+ * when the rows were created.
+ * <p>
+ * The number of partitions must be 16, 256 or 4096.
+ */
+public class KeyPartitionSet implements Iterable<KeyPartition> {
+
+	static final Pattern NAME_PATTERN = Pattern.compile("keys(\\d+)", Pattern.CASE_INSENSITIVE);
+	static final int MAX_DIGITS = 3;
+	
+	private final int size;
+	private final int digits;
+	private final List<KeyPartition> parts;
+	
+	public KeyPartitionSet(int size) {
+		this.size = size;
+		this.digits = digitsFor(size);
+		if (digits < 1) 
+			throw new IllegalArgumentException("invalid number of key partitions: " + size);
+		parts = new ArrayList<KeyPartition>(size);
+		String format = "%0" + digits + "x";
+		for (int i = 0; i < size; ++i) {
+			String prefix = String.format(format, i);
+			String start = (i == 0) ? null : prefix;
+			String end = (i == size - 1) ? null : String.format(format, i + 1);
+			parts.add(new KeyPartition(prefix, start, end));
+		}
+	}
+
+	/**
+	 * Return the number of hex digits required to produce the specified number of partitions,
+	 * or 0 if the number is not a valid partition count.
+	 */
+	static int digitsFor(int size) {
+		int count = 16;
+		for (int digits = 1; digits <= MAX_DIGITS; ++digits) {
+			if (size == count) return digits;
+			count *= 16;
+		}
+		return 0;
+	}
+	
+	/**
+	 * Return true if the value is a valid key partition name such as "keys16" or "keys256".
+	 */
+	public static boolean isValidName(String name) {
+		return parseName(name) != null;
+	}
+
+	/**
+	 * Convert a name such as "keys16" into a {@link KeyPartitionSet}.
+	 * Return null if the name is not valid.
+	 */
+	public static KeyPartitionSet parseName(String name) {
+		if (name == null) return null;
+		Matcher matcher = NAME_PATTERN.matcher(name.trim());
+		if (!matcher.matches()) return null;
+		int size;
+		try {
+			size = Integer.parseInt(matcher.group(1));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		if (digitsFor(size) == 0) return null;
+		return new KeyPartitionSet(size);
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	@Override
+	public Iterator<KeyPartition> iterator() {
+		return parts.iterator();
+	}
+	
+	@Override
+	public String toString() {
+		return "keys" + size;
+	}
+	
+}
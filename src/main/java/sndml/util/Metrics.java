@@ -2,6 +2,8 @@ package sndml.util;
 
 import java.io.PrintWriter;
 import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
 
 public final class Metrics implements Cloneable {
 
@@ -13,8 +15,15 @@ public final class Metrics implements Cloneable {
 	private int updated = 0;
 	private int deleted = 0;
 	private int skipped = 0;
+	private int pages = 0;
+	private int minPageSize = 0;
+	private int maxPageSize = 0;
+	private int lastPageSize = 0;
 	private Date started = null;
 	private Date finished = null;
+	// rows and seconds by application node
+	private Map<String, Integer> nodeInput = new TreeMap<String, Integer>();
+	private Map<String, Double> nodeElapsed = new TreeMap<String, Double>();
 			
 	public Metrics(String name) {
 		this.name = name;
@@ -120,6 +129,34 @@ public final class Metrics implements Cloneable {
 		return this.skipped;
 	}
 	
+	/**
+	 * @return the number of pages requested by the reader
+	 */
+	public int getPages() {
+		return this.pages;
+	}
+	
+	/**
+	 * @return the smallest page size requested, or zero if no pages have been requested
+	 */
+	public int getMinPageSize() {
+		return this.minPageSize;
+	}
+	
+	/**
+	 * @return the largest page size requested, or zero if no pages have been requested
+	 */
+	public int getMaxPageSize() {
+		return this.maxPageSize;
+	}
+	
+	/**
+	 * @return the most recent page size requested, or zero if no pages have been requested
+	 */
+	public int getLastPageSize() {
+		return this.lastPageSize;
+	}
+	
 	public void incrementInput() {
 		addInput(1);
 	}
@@ -165,6 +202,49 @@ public final class Metrics implements Cloneable {
 		if (parent != null) parent.addSkipped(count);
 	}
 	
+	/**
+	 * Record the number of rows which were read from a ServiceNow application node
+	 * and the number of seconds spent reading them.
+	 */
+	public synchronized void addNodeInput(String node, int count, double elapsedSec) {
+		assert node != null;
+		nodeInput.merge(node, count, Integer::sum);
+		nodeElapsed.merge(node, elapsedSec, Double::sum);
+		if (parent != null) parent.addNodeInput(node, count, elapsedSec);
+	}
+	
+	/**
+	 * Attribute all of the rows read with these metrics to a ServiceNow application node.
+	 * Called when a reader which used a single session has finished.
+	 */
+	public void addNodeInput(String node) {
+		int count;
+		double elapsedSec;
+		synchronized (this) {
+			count = input;
+			elapsedSec = (started == null) ? 0 : getElapsedSec();
+		}
+		addNodeInput(node, count, elapsedSec);
+	}
+	
+	/**
+	 * @return the number of rows read from each ServiceNow application node
+	 */
+	public synchronized Map<String, Integer> getNodeInput() {
+		return new TreeMap<String, Integer>(nodeInput);
+	}
+	
+	/**
+	 * Record the page size (<i>i.e.</i> <code>sysparm_limit</code>) of a page requested by the reader
+	 */
+	public synchronized void addPage(int pageSize) {
+		if (pages == 0 || pageSize < minPageSize) minPageSize = pageSize;
+		if (pages == 0 || pageSize > maxPageSize) maxPageSize = pageSize;
+		lastPageSize = pageSize;
+		pages += 1;
+		if (parent != null) parent.addPage(pageSize);
+	}
+	
 	public synchronized void add(Metrics stats) {
 		assert stats != null;
 		assert stats.started != null;
@@ -175,12 +255,24 @@ public final class Metrics implements Cloneable {
 		updated += stats.updated;
 		deleted += stats.deleted;
 		skipped += stats.skipped;
+		if (stats.pages > 0) {
+			if (pages == 0 || stats.minPageSize < minPageSize) minPageSize = stats.minPageSize;
+			if (pages == 0 || stats.maxPageSize > maxPageSize) maxPageSize = stats.maxPageSize;
+			lastPageSize = stats.lastPageSize;
+			pages += stats.pages;
+		}
+		for (Map.Entry<String, Integer> node : stats.nodeInput.entrySet()) {
+			nodeInput.merge(node.getKey(), node.getValue(), Integer::sum);
+			nodeElapsed.merge(node.getKey(), stats.nodeElapsed.get(node.getKey()), Double::sum);
+		}
 	}
 		
 	@Override
 	protected Metrics clone() throws CloneNotSupportedException {
 		Metrics copy = (Metrics) super.clone();
 		copy.parent = null;
+		copy.nodeInput = new TreeMap<String, Integer>(nodeInput);
+		copy.nodeElapsed = new TreeMap<String, Double>(nodeElapsed);
 		return copy;
 	}
 	
@@ -194,6 +286,21 @@ public final class Metrics implements Cloneable {
 		writer.println(prefix + "deleted="   + String.valueOf(getDeleted()));
 		writer.println(prefix + "skipped="   + String.valueOf(getSkipped()));
 		writer.println(prefix + "processed=" + String.valueOf(getProcessed()));	
+		if (pages > 0) {
+			writer.println(prefix + "pages="         + String.valueOf(getPages()));
+			writer.println(prefix + "pagesize_min="  + String.valueOf(getMinPageSize()));
+			writer.println(prefix + "pagesize_max="  + String.valueOf(getMaxPageSize()));
+		}
+		// rate is rows per second of wall-clock time for the job;
+		// elapsed is the total time of the readers which used the node, which may overlap
+		double wallClock = getElapsedSec();
+		for (Map.Entry<String, Integer> node : getNodeInput().entrySet()) {
+			double elapsed = nodeElapsed.get(node.getKey());
+			writer.println(prefix + "node." + node.getKey() + ".input=" + node.getValue());
+			writer.println(prefix + "node." + node.getKey() + ".elapsed=" + String.format("%.1f", elapsed));
+			writer.println(prefix + "node." + node.getKey() + ".rate=" + 
+				String.format("%.1f", wallClock > 0 ? node.getValue() / wallClock : 0.0));
+		}
 		writer.flush();
 	}
 	
@@ -9,12 +9,12 @@ public class NullProgressLogger extends ProgressLogger {
 		super(null, null);
 	}
 	
-	public NullProgressLogger(Metrics metrics, DatePartition datePart) {
-		super(metrics, datePart);
+	public NullProgressLogger(Metrics metrics, Partition part) {
+		super(metrics, part);
 	}
 		
 	@Override
-	public NullProgressLogger newPartLogger(Metrics newMetrics, DatePartition newPart) {
+	public NullProgressLogger newPartLogger(Metrics newMetrics, Partition newPart) {
 		return new NullProgressLogger(null, newPart);
 	}
 	
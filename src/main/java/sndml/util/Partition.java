@@ -0,0 +1,14 @@
+package sndml.util;
+
+/**
+ * A subset of the rows of a table which can be processed independently
+ * of other subsets, such as a {@link DatePartition} or a {@link KeyPartition}.
+ */
+public interface Partition {
+
+	/**
+	 * Name used to identify the partition in logs and status messages.
+	 */
+	public String getName();
+	
+}
@@ -4,27 +4,27 @@ import sndml.agent.JobCancelledException;
 
 public abstract class ProgressLogger {
 
-	protected final DatePartition datePart;
+	protected final Partition part;
 	protected final Metrics metrics;
 	
-	public ProgressLogger(Metrics metrics, DatePartition datePart) {
-		this.datePart = datePart;
+	public ProgressLogger(Metrics metrics, Partition part) {
+		this.part = part;
 		this.metrics = metrics;
 	}
 	
-	public DatePartition getPart() {
-		return datePart;
+	public Partition getPart() {
+		return part;
 	}
 	
 	public boolean hasPart() {
-		return datePart != null;
+		return part != null;
 	}
 	
 	public Metrics getMetrics() {
 		return metrics;
 	}
 	
-	public abstract ProgressLogger newPartLogger(Metrics newMetrics, DatePartition newPart);	
+	public abstract ProgressLogger newPartLogger(Metrics newMetrics, Partition newPart);	
 
 	/**
 	 * We are starting the initialization process, which includes
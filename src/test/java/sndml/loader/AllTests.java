@@ -19,6 +19,8 @@ import org.junit.runners.Suite.SuiteClasses;
 	PruneTest.class,
 	TimestampTest.class,
 	TableLoaderTest.class,
+	CheckpointFileTest.class,
+	DatePartitionPlannerTest.class,
 })
 
 public class AllTests {
@@ -0,0 +1,68 @@
+package sndml.loader;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CheckpointFileTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File writeCheckpoint(String signature) throws Exception {
+		File file = folder.newFile("test.checkpoint");
+		Properties props = new Properties();
+		props.setProperty("signature", signature);
+		props.setProperty("job.K-0.key", "0fffffffffffffffffffffffffffffff");
+		props.setProperty("job.K-0.rows", "500");
+		props.setProperty("job.K-0.complete", "true");
+		props.setProperty("job.K-1.key", "1234567890abcdef1234567890abcdef");
+		props.setProperty("job.K-1.rows", "200");
+		try (OutputStream output = new FileOutputStream(file)) {
+			props.store(output, null);
+		}
+		return file;
+	}
+
+	@Test
+	public void testResume() throws Exception {
+		File file = writeCheckpoint("sig");
+		CheckpointFile checkpoint = new CheckpointFile(file, "sig");
+		assertTrue(checkpoint.isResuming());
+		assertTrue(checkpoint.isComplete("job.K-0"));
+		assertFalse(checkpoint.isComplete("job.K-1"));
+		assertEquals(500, checkpoint.getRows("job.K-0"));
+		assertEquals(200, checkpoint.getRows("job.K-1"));
+		assertEquals("1234567890abcdef1234567890abcdef", checkpoint.getKey("job.K-1").toString());
+		assertNull(checkpoint.getKey("job.K-2"));
+		assertEquals(0, checkpoint.getRows("job.K-2"));
+		checkpoint.delete();
+		assertFalse(file.exists());
+	}
+
+	@Test
+	public void testSignatureChanged() throws Exception {
+		File file = writeCheckpoint("sig");
+		CheckpointFile checkpoint = new CheckpointFile(file, "other");
+		assertFalse(checkpoint.isResuming());
+		assertFalse(checkpoint.isComplete("job.K-0"));
+		assertNull(checkpoint.getKey("job.K-1"));
+		assertEquals(0, checkpoint.getRows("job.K-1"));
+	}
+
+	@Test
+	public void testNewFile() throws Exception {
+		File file = new File(folder.getRoot(), "new.checkpoint");
+		CheckpointFile checkpoint = new CheckpointFile(file, "sig");
+		assertFalse(checkpoint.isResuming());
+		assertFalse(file.exists());
+	}
+
+}
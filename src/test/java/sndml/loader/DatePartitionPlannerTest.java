@@ -0,0 +1,57 @@
+package sndml.loader;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import sndml.util.DatePartition;
+import sndml.util.DateTime;
+import sndml.util.PartitionInterval;
+
+public class DatePartitionPlannerTest {
+
+	private DatePartition part(PartitionInterval interval, String start, String end) {
+		return new DatePartition(interval, new DateTime(start), new DateTime(end));
+	}
+
+	@Test
+	public void testMerge() {
+		Map<DatePartition, Integer> counts = new HashMap<DatePartition, Integer>();
+		counts.put(part(PartitionInterval.MONTH, "2020-01-01", "2020-02-01"), 10);
+		counts.put(part(PartitionInterval.MONTH, "2020-02-01", "2020-03-01"), 20);
+		counts.put(part(PartitionInterval.MONTH, "2020-03-01", "2020-04-01"), 100);
+		List<DatePartition> result = DatePartitionPlanner.merge(counts, 50);
+		assertEquals(2, result.size());
+		// most recent first
+		assertEquals("M-2020-03", result.get(0).getName());
+		assertEquals("M-2020-01~M-2020-03", result.get(1).getName());
+		assertEquals(Integer.valueOf(100), counts.get(result.get(0)));
+		assertEquals(Integer.valueOf(30), counts.get(result.get(1)));
+	}
+
+	@Test
+	public void testMergeMixedIntervals() {
+		Map<DatePartition, Integer> counts = new HashMap<DatePartition, Integer>();
+		counts.put(part(PartitionInterval.MONTH, "2020-01-01", "2020-02-01"), 5);
+		counts.put(part(PartitionInterval.DAY, "2020-02-01", "2020-02-02"), 5);
+		counts.put(part(PartitionInterval.DAY, "2020-02-02", "2020-02-03"), 50);
+		List<DatePartition> result = DatePartitionPlanner.merge(counts, 20);
+		assertEquals(2, result.size());
+		DatePartition span = result.get(1);
+		assertEquals(PartitionInterval.DAY, span.getInterval());
+		assertEquals(new DateTime("2020-01-01"), span.getStart());
+		assertEquals(new DateTime("2020-02-02"), span.getEnd());
+		assertEquals(Integer.valueOf(10), counts.get(span));
+	}
+
+	@Test
+	public void testDefaultTarget() {
+		assertEquals(DatePartitionPlanner.MIN_TARGET_ROWS, DatePartitionPlanner.defaultTarget(1000, 4));
+		assertEquals(250000, DatePartitionPlanner.defaultTarget(8000000, 8));
+	}
+
+}
@@ -18,6 +18,7 @@ import sndml.util.ParametersTest;
 	TableWSDLTest.class,
 	TableSchemaTest.class,
 	GetKeysTest.class,
+	KeySetTableReaderTest.class,
 	RestTableReaderTest.class,
 	SetFieldsTest.class,
 	CRUDTest.class,
@@ -0,0 +1,20 @@
+package sndml.servicenow;
+
+import static org.junit.Assert.*;
+
+import java.net.URI;
+
+import org.junit.Test;
+
+public class BatchRequestTest {
+
+	@Test
+	public void testRelativeURL() throws Exception {
+		URI uri = new URI("https://dev00000.service-now.com/api/now/stats/incident?sysparm_count=true&sysparm_query=active%3Dtrue");
+		assertEquals("/api/now/stats/incident?sysparm_count=true&sysparm_query=active%3Dtrue", 
+			BatchRequest.getRelativeURL(uri));
+		URI noQuery = new URI("https://dev00000.service-now.com/api/now/stats/incident");
+		assertEquals("/api/now/stats/incident", BatchRequest.getRelativeURL(noQuery));
+	}
+
+}
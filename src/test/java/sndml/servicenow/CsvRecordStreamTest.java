@@ -0,0 +1,50 @@
+package sndml.servicenow;
+
+import static org.junit.Assert.*;
+
+import java.io.StringReader;
+
+import org.junit.Test;
+
+public class CsvRecordStreamTest {
+
+	static final String KEY1 = "00000000000000000000000000000001";
+	static final String KEY2 = "00000000000000000000000000000002";
+
+	@Test
+	public void testQuotedValues() throws Exception {
+		String csv = 
+			"\"sys_id\",\"number\",\"short_description\"\r\n" +
+			"\"" + KEY1 + "\",\"INC0001\",\"comma, and \"\"quotes\"\"\"\r\n" +
+			"\"" + KEY2 + "\",\"INC0002\",\"two\nlines\"\r\n";
+		CsvRecordStream stream = new CsvRecordStream(null, new StringReader(csv));
+		assertEquals(3, stream.getHeader().size());
+		RecordList recs = stream.readAll();
+		stream.close();
+		assertEquals(2, recs.size());
+		assertEquals("comma, and \"quotes\"", recs.get(0).getValue("short_description"));
+		assertEquals("two\nlines", recs.get(1).getValue("short_description"));
+		assertEquals(KEY2, stream.maxKey().toString());
+	}
+
+	@Test
+	public void testEmptyValues() throws Exception {
+		String csv = "sys_id,number,assigned_to\n" + KEY1 + ",INC0001,\n";
+		CsvRecordStream stream = new CsvRecordStream(null, new StringReader(csv));
+		RecordList recs = stream.readAll();
+		stream.close();
+		assertEquals(1, recs.size());
+		assertEquals("INC0001", recs.get(0).getValue("number"));
+		assertNull(recs.get(0).getValue("assigned_to"));
+		assertNull(recs.get(0).getValue("no_such_field"));
+	}
+
+	@Test
+	public void testEmptyFile() throws Exception {
+		CsvRecordStream stream = new CsvRecordStream(null, new StringReader(""));
+		assertFalse(stream.hasNext());
+		stream.close();
+		assertNull(stream.maxKey());
+	}
+
+}
@@ -0,0 +1,51 @@
+package sndml.servicenow;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+
+import sndml.loader.TestManager;
+import sndml.loader.TestingProfile;
+import sndml.util.Log;
+import sndml.util.Metrics;
+import sndml.util.NullProgressLogger;
+
+public class KeySetTableReaderTest {
+
+	final TestingProfile profile;
+	final Logger logger = TestManager.getLogger(this.getClass());
+
+	public KeySetTableReaderTest() {
+		this.profile = TestManager.getDefaultProfile();
+	}
+
+	private RecordList readSlices(Table table, RecordKeySet keys, int asyncSlices) throws Exception {
+		KeySetTableReader reader = new KeySetTableReader(table);
+		reader.setPageSize(20);
+		reader.setBatchSlices(0);
+		reader.setAsyncSlices(asyncSlices);
+		RecordListAccumulator accumulator = new RecordListAccumulator(table);
+		reader.prepare(keys, accumulator, new Metrics(null, null), new NullProgressLogger());
+		reader.call();
+		return accumulator.getRecords();
+	}
+
+	@Test
+	public void testAsyncSlices() throws Exception {
+		Session session = profile.newReaderSession();
+		Table table = session.table("sys_user");
+		RecordKeySet allKeys = table.json().getKeys();
+		assertTrue(allKeys.size() > 100);
+		RecordKeySet keys = allKeys.getSlice(0, 100);
+		RecordList sequential = readSlices(table, keys, 0);
+		RecordList async = readSlices(table, keys, 4);
+		logger.info(Log.TEST, String.format("sequential=%d async=%d", sequential.size(), async.size()));
+		assertEquals(keys.size(), sequential.size());
+		assertEquals(keys.size(), async.size());
+		// slices are written in order, so the records are in the same order
+		for (int i = 0; i < keys.size(); ++i)
+			assertEquals(sequential.get(i).getKey(), async.get(i).getKey());
+	}
+
+}
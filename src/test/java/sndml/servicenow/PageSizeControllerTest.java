@@ -0,0 +1,36 @@
+package sndml.servicenow;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class PageSizeControllerTest {
+
+	@Test
+	public void testGrow() {
+		PageSizeController controller = new PageSizeController(200, 50, 1000, 10000, 0);
+		// fast responses; size doubles until it reaches the maximum
+		assertEquals(400, controller.update(200, 500, 0));
+		assertEquals(800, controller.update(400, 1000, 0));
+		assertEquals(1000, controller.update(800, 2000, 0));
+		assertEquals(1000, controller.update(1000, 2500, 0));
+	}
+
+	@Test
+	public void testShrink() {
+		PageSizeController controller = new PageSizeController(1000, 50, 10000, 10000, 1000000);
+		// slow response; size is halved
+		assertEquals(500, controller.update(1000, 60000, 0));
+		// large response; size is reduced to fit the byte budget
+		assertEquals(400, controller.update(500, 1000, 1250000));
+	}
+	
+	@Test
+	public void testShortPage() {
+		PageSizeController controller = new PageSizeController(200, 50, 1000, 10000, 0);
+		// a short final page does not cause the size to grow
+		assertEquals(200, controller.update(10, 100, 0));
+		assertEquals(200, controller.update(0, 100, 0));
+	}
+
+}
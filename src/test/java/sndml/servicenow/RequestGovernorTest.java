@@ -0,0 +1,54 @@
+package sndml.servicenow;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class RequestGovernorTest {
+
+	@Test
+	public void testDecreaseAndIncrease() throws Exception {
+		RequestGovernor governor = new RequestGovernor("test", 8, 0, 3, 1000);
+		assertEquals(8, governor.getLimit());
+		long ticket = 0;
+		for (int i = 0; i < 4; ++i) ticket = governor.acquire();
+		// 4 requests in flight; one is throttled so the limit drops to 2
+		governor.throttled(0, ticket);
+		assertEquals(2, governor.getLimit());
+		assertEquals(1, governor.getThrottleCount());
+		for (int i = 0; i < 3; ++i) governor.release();
+		// each success adds 1/limit
+		assertTrue(governor.getLimit() >= 3);
+		assertTrue(governor.getLimit() <= 8);
+	}
+
+	@Test
+	public void testOneDecreasePerWindow() throws Exception {
+		RequestGovernor governor = new RequestGovernor("test", 16, 0, 3, 1000);
+		long ticket = 0;
+		for (int i = 0; i < 16; ++i) ticket = governor.acquire();
+		// all of the requests in flight are throttled, but the limit is only halved once
+		for (int i = 0; i < 4; ++i) governor.throttled(0, ticket);
+		assertEquals(8, governor.getLimit());
+		assertEquals(4, governor.getThrottleCount());
+		for (int i = 0; i < 12; ++i) governor.release();
+		// a request sent after the decrease can decrease the limit again
+		long next = governor.acquire();
+		assertNotEquals(ticket, next);
+		assertTrue(governor.getLimit() > 8);
+		governor.throttled(0, next);
+		// only one request was in flight
+		assertEquals(1, governor.getLimit());
+	}
+
+	@Test
+	public void testRetryAfter() {
+		assertEquals(30000, RequestGovernor.parseRetryAfter("30", 5000));
+		assertEquals(5000, RequestGovernor.parseRetryAfter("soon", 5000));
+		assertEquals(5000, RequestGovernor.parseRetryAfter(null, 5000));
+		RequestGovernor governor = new RequestGovernor("test", 0, 0, 3, 1000);
+		assertEquals(1000, governor.getRetryAfterMillis(null, 0));
+		assertEquals(4000, governor.getRetryAfterMillis(null, 2));
+	}
+
+}
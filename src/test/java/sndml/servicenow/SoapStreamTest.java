@@ -0,0 +1,60 @@
+package sndml.servicenow;
+
+import static org.junit.Assert.*;
+
+import java.io.StringReader;
+
+import javax.xml.stream.XMLStreamReader;
+
+import org.junit.Test;
+
+public class SoapStreamTest {
+
+	static final String KEY1 = "00000000000000000000000000000001";
+	static final String KEY2 = "00000000000000000000000000000002";
+	static final String KEY3 = "00000000000000000000000000000003";
+
+	static XMLStreamReader startAt(String xml) throws Exception {
+		XMLStreamReader reader = XmlRequest.inputFactory.createXMLStreamReader(new StringReader(xml));
+		reader.nextTag();
+		return reader;
+	}
+
+	@Test
+	public void testReadKeys() throws Exception {
+		String xml = "<getKeysResponse xmlns=\"http://www.service-now.com/incident\">" +
+			"<sys_id>" + KEY1 + "," + KEY2 + "," + KEY3 + "</sys_id><count>3</count></getKeysResponse>";
+		XMLStreamReader reader = startAt(xml);
+		RecordKeySet keys = new RecordKeySet();
+		assertEquals(3, SoapTableAPI.readKeys(reader, keys));
+		assertEquals(3, keys.size());
+		assertEquals(KEY1, keys.get(0).toString());
+		assertEquals(KEY3, keys.get(2).toString());
+		assertTrue(reader.isEndElement());
+	}
+
+	@Test
+	public void testReadNoKeys() throws Exception {
+		XMLStreamReader reader = startAt("<getKeysResponse><sys_id/><count>0</count></getKeysResponse>");
+		RecordKeySet keys = new RecordKeySet();
+		assertEquals(0, SoapTableAPI.readKeys(reader, keys));
+		assertEquals(0, keys.size());
+	}
+
+	@Test
+	public void testReadRecords() throws Exception {
+		String xml = "<getRecordsResponse xmlns=\"http://www.service-now.com/incident\">" +
+			"<getRecordsResult><sys_id>" + KEY1 + "</sys_id><number>INC0001</number>" +
+			"<short_description>a &amp; b</short_description></getRecordsResult>" +
+			"<getRecordsResult><sys_id>" + KEY2 + "</sys_id><number>INC0002</number>" +
+			"<short_description/></getRecordsResult>" +
+			"</getRecordsResponse>";
+		RecordList recs = SoapTableAPI.readRecords(null, startAt(xml));
+		assertEquals(2, recs.size());
+		assertEquals(KEY1, recs.get(0).getKey().toString());
+		assertEquals("a & b", recs.get(0).getValue("short_description"));
+		assertEquals("INC0002", recs.get(1).getValue("number"));
+		assertNull(recs.get(1).getValue("short_description"));
+	}
+
+}
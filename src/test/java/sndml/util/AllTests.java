@@ -9,7 +9,8 @@ import org.junit.runners.Suite.SuiteClasses;
 	DateTimeTest.class, 
 	MetricsTest.class, 
 	ParametersTest.class,
-	DatePartitionsTest.class })
+	DatePartitionsTest.class,
+	KeyPartitionsTest.class })
 
 public class AllTests {
 	
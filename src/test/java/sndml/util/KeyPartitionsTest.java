@@ -0,0 +1,64 @@
+package sndml.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Iterator;
+
+import org.junit.Test;
+
+public class KeyPartitionsTest {
+
+	@Test
+	public void testKeys16() {
+		KeyPartitionSet parts = KeyPartitionSet.parseName("keys16");
+		assertNotNull(parts);
+		assertEquals(16, parts.size());
+		Iterator<KeyPartition> iter = parts.iterator();
+		KeyPartition first = iter.next();
+		assertNull(first.getStart());
+		assertEquals("1", first.getEnd());
+		KeyPartition second = iter.next();
+		assertEquals("1", second.getStart());
+		assertEquals("2", second.getEnd());
+		KeyPartition last = second;
+		while (iter.hasNext()) last = iter.next();
+		assertEquals("f", last.getStart());
+		assertNull(last.getEnd());
+	}
+	
+	@Test
+	public void testKeys256() {
+		KeyPartitionSet parts = KeyPartitionSet.parseName("Keys256");
+		assertNotNull(parts);
+		assertEquals(256, parts.size());
+		String prevEnd = null;
+		int count = 0;
+		for (KeyPartition part : parts) {
+			if (count > 0) assertEquals(prevEnd, part.getStart());
+			prevEnd = part.getEnd();
+			count += 1;
+		}
+		assertEquals(256, count);
+		assertNull(prevEnd);
+	}
+	
+	@Test
+	public void testInvalid() {
+		assertFalse(KeyPartitionSet.isValidName("keys10"));
+		assertFalse(KeyPartitionSet.isValidName("month"));
+		assertFalse(KeyPartitionSet.isValidName("keys"));
+	}
+
+	@Test
+	public void testMidpoint() {
+		assertEquals("80000000000000000000000000000000", KeyPartition.midpoint(null, null));
+		assertEquals("18000000000000000000000000000000", KeyPartition.midpoint("1", "2"));
+		String mid = KeyPartition.midpoint("0000000000000000000000000000000a", "1");
+		assertTrue(mid.compareTo("0000000000000000000000000000000a") > 0);
+		assertTrue(mid.compareTo("1") < 0);
+		assertEquals(32, mid.length());
+		assertNull(KeyPartition.midpoint("00000000000000000000000000000001", "00000000000000000000000000000002"));
+		assertNull(KeyPartition.midpoint("not-hex", null));
+	}
+
+}
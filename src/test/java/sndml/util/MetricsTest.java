@@ -3,6 +3,9 @@ package sndml.util;
 import org.junit.*;
 import static org.junit.Assert.*;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -21,4 +24,39 @@ public class MetricsTest {
 		assertEquals(0, m2.getUpdated());		
 	}
 
+	@Test
+	public void testNodeInput() throws CloneNotSupportedException {
+		Metrics parent = new Metrics("node-test");
+		Metrics part1 = new Metrics("node-test.1", parent);
+		Metrics part2 = new Metrics("node-test.2", parent);
+		part1.addInput(100);
+		part2.addInput(50);
+		part1.addNodeInput("node-a");
+		part2.addNodeInput("node-b");
+		part2.addNodeInput("node-a", 25, 1.0);
+		assertEquals(Integer.valueOf(125), parent.getNodeInput().get("node-a"));
+		assertEquals(Integer.valueOf(50), parent.getNodeInput().get("node-b"));
+		Metrics copy = parent.clone();
+		parent.addNodeInput("node-b", 10, 1.0);
+		assertEquals(Integer.valueOf(50), copy.getNodeInput().get("node-b"));
+	}
+
+	@Test
+	public void testNodeRate() throws Exception {
+		Metrics metrics = new Metrics("rate-test");
+		metrics.start();
+		// two partitions of 25 seconds each which ran at the same time
+		metrics.addNodeInput("node-a", 100, 25.0);
+		metrics.addNodeInput("node-a", 100, 25.0);
+		metrics.finish();
+		StringWriter text = new StringWriter();
+		metrics.write(new PrintWriter(text));
+		String output = text.toString();
+		logger.info(output);
+		assertTrue(output.contains("rate-test.node.node-a.input=200\n"));
+		assertTrue(output.contains("rate-test.node.node-a.elapsed=50.0\n"));
+		// the rate is based on the elapsed time of the job, not the sum of the partitions
+		assertFalse(output.contains("rate-test.node.node-a.rate=4.0\n"));
+	}
+
 }